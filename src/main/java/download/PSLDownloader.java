@@ -3,22 +3,33 @@ package download;
 import org.json.JSONArray;
 import org.json.JSONException;
 import util.Filenames;
+import util.PSLArchive;
 
 import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.*;
 import java.util.stream.Collectors;
 
 /**
- * This class is used to download all PSL Versions from GitHub
+ * This class is used to download all PSL Versions from GitHub. The versions are appended to the OUTPUT_ARCHIVE (see
+ * PSLArchive); versions that are already part of the archive are not downloaded again.
+ *
+ * If started with the argument --pack nothing is downloaded, instead all files in the PSL_FOLDER (the format of
+ * previous versions of this tool) are added to the archive.
  */
 public class PSLDownloader {
 
-    private static final String OUTPUT_FOLDER = Filenames.PSL_VERSIONS_FOLDER;
+    private static final String OUTPUT_ARCHIVE = Filenames.PSL_VERSIONS_ARCHIVE;
+
+    private static final String PSL_FOLDER = Filenames.PSL_VERSIONS_FOLDER;
+
+    private static final String PACK_ARGUMENT = "--pack";
     /**
      * !!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!    REMOVE    !!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!
      */
@@ -31,76 +42,109 @@ public class PSLDownloader {
     private static final SimpleDateFormat LAST_MODIFIED_SDF = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz");
 
     public static void main(String[] args) {
-        //in the beginning the psl file was "netwerk/dns/src/effective_tld_names.dat"
-        int versions_of_effective_tld_names_dat = downloadAllVersions("netwerk/dns/src/effective_tld_names.dat", null);
-        System.out.println("total: "+versions_of_effective_tld_names_dat);
-        System.out.println("**************************************\npublic_suffix_list.dat");
-        //in 2010 the file was renamed to "public_suffix_list.dat"
-        int versions_of_public_suffix_list_dat = downloadAllVersions("public_suffix_list.dat", null);
-        System.out.println("total: "+versions_of_public_suffix_list_dat);
+        try(PSLArchive.Writer archive = new PSLArchive.Writer(new File(OUTPUT_ARCHIVE))) {
+            if(Arrays.asList(args).contains(PACK_ARGUMENT)) {
+                System.out.println("packed: " + packFolder(archive));
+                return;
+            }
+            //in the beginning the psl file was "netwerk/dns/src/effective_tld_names.dat"
+            int versions_of_effective_tld_names_dat = downloadAllVersions("netwerk/dns/src/effective_tld_names.dat", null, archive);
+            System.out.println("total: "+versions_of_effective_tld_names_dat);
+            System.out.println("**************************************\npublic_suffix_list.dat");
+            //in 2010 the file was renamed to "public_suffix_list.dat"
+            int versions_of_public_suffix_list_dat = downloadAllVersions("public_suffix_list.dat", null, archive);
+            System.out.println("total: "+versions_of_public_suffix_list_dat);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("error while writing "+OUTPUT_ARCHIVE);
+        }
     }
 
     /**
      * downloads all versions of the file specified in the filepath from the list repository of
-     * owner publicsuffixlist on github and stores them in the OUTPUT_FOLDER
+     * owner publicsuffixlist on github and appends them to the archive (oldest first). Versions that are already part
+     * of the archive are skipped.
      * @param filepath
      * @param lastCommitHash the hash value of the last commit that should be downloaded
      *                       (exclusive -> means the first that will not be downloaded)
      *                       null if no such exists and all should be downloaded
+     * @param archive the archive the versions are appended to
      * @return the number of versions found and downloaded
      */
-    private static int downloadAllVersions(String filepath, String lastCommitHash) {
-        //prepare the output directory
-        final File outputdir = new File(OUTPUT_FOLDER);
-        outputdir.mkdirs();
-        if(!outputdir.exists()) {
-            System.err.println(OUTPUT_FOLDER+" cannot be created.");
-            return 0;
-        } else if (!outputdir.canWrite()){
-            System.err.println("Cannot write to "+OUTPUT_FOLDER);
-            return 0;
-        }
-
-        //identify all relevant commit hashes
+    private static int downloadAllVersions(String filepath, String lastCommitHash, PSLArchive.Writer archive) throws IOException {
+        //identify all relevant commit hashes (latest first)
         List<String> allVersionHashes = getAllVersionHashes(filepath, lastCommitHash);
         System.out.println("Found "  + allVersionHashes.size()+" versions");
+        if(lastCommitHash != null && allVersionHashes.contains(lastCommitHash)) {
+            System.out.println("found lastCommitHash; the older versions are skipped.");
+            allVersionHashes = allVersionHashes.subList(0, allVersionHashes.indexOf(lastCommitHash));
+        }
+        //consecutive versions are stored as deltas in the archive, so they are added in the order of the commits
+        allVersionHashes = new ArrayList<>(allVersionHashes);
+        Collections.reverse(allVersionHashes);
 
         //download and store every version
         int counter = 0;
         for(String hash: allVersionHashes){
             System.out.println("version "+(counter+1)+" ("+hash+") : ");
-            if(lastCommitHash != null && lastCommitHash.equals(hash)) {
-                System.out.println("found lastCommitHash; return here.");
-                return counter;
+            if(archive.contains(hash)) {
+                System.out.println("\talready in " + OUTPUT_ARCHIVE);
+                continue;
             }
             try {
                 final Date dateForCommit = getDateForCommit(hash);
                 System.out.println("\tgot date: "+dateForCommit);
                 final URL url = new URL("https://raw.githubusercontent.com/publicsuffix/list/"+ hash+"/"+filepath);;
                 final PageContentResult pageContent = getPageContent(url, null);
-                if(pageContent != null) {
+                if(pageContent != null && dateForCommit != null) {
                     System.out.println("\tdownloaded");
-                    final File outputfile = new File(OUTPUT_FOLDER+File.separator+buildFilename(hash, dateForCommit));
-                    final FileWriter fileWriter = new FileWriter(outputfile);
-                    fileWriter.write(pageContent.getContent());
-                    fileWriter.flush();
-                    fileWriter.close();
-                    System.out.println("\twritten to " + OUTPUT_FOLDER);
+                    archive.add(dateForCommit.getTime(), hash, pageContent.getContent().getBytes(StandardCharsets.UTF_8));
+                    System.out.println("\twritten to " + OUTPUT_ARCHIVE);
                     counter++;
                 } else {
                     System.err.println("Error while getting content for: " + hash);
                 }
             } catch (MalformedURLException e) {
                 e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
             }
         }
         return counter;
     }
 
-    private static String buildFilename(String hash, Date dateForCommit){
-        return dateForCommit.getTime()+"_"+hash;
+    /**
+     * adds all files of the PSL_FOLDER (named <COMMIT TIMESTAMP>_<COMMIT_HASH>) to the archive ordered by commit date
+     * @return the number of versions added (versions that are already part of the archive are skipped)
+     */
+    private static int packFolder(PSLArchive.Writer archive) throws IOException {
+        final File[] files = new File(PSL_FOLDER).listFiles();
+        if(files == null) {
+            System.err.println("cannot read: " + PSL_FOLDER);
+            return 0;
+        }
+        final Map<File, Long> commitTimestamps = new HashMap<>();
+        for(File file: files) {
+            final String[] split = file.getName().split("_");
+            try {
+                if(split.length == 2) {
+                    commitTimestamps.put(file, Long.valueOf(split[0]));
+                    continue;
+                }
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+            System.err.println("invalid filename: " + file.getName());
+        }
+        final List<File> sorted = Arrays.stream(files)
+                .filter(commitTimestamps::containsKey)
+                .sorted(Comparator.comparingLong(commitTimestamps::get))
+                .collect(Collectors.toList());
+        int counter = 0;
+        for(File file: sorted) {
+            if(archive.add(commitTimestamps.get(file), file.getName().split("_")[1], Files.readAllBytes(file.toPath()))) {
+                counter++;
+            }
+        }
+        return counter;
     }
 
     /**
@@ -0,0 +1,181 @@
+package model;
+
+import java.util.*;
+
+/**
+ * Estimates the heap memory retained by the loaded versions, grouped by structure (rule strings, the entries of the
+ * versions, the lists and maps of every version, the state of a game...). The sizes are computed from the object
+ * layout of a 64 bit jvm with compressed references (12 byte object headers, 16 byte array headers, 4 byte references,
+ * 8 byte alignment) and the capacity of collections is assumed to be their size, so the result is an estimate.
+ *
+ * Every object is counted once: objects that are shared (e.g. the entries shared by all versions, or the versions of an
+ * older dataset that are the same objects as the loaded ones) are attributed to the structure they were counted for
+ * first. Adding the loaded versions before other versions therefore reports only what the other versions hold on their
+ * own.
+ */
+public class HeapFootprint {
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+    //a HashMap/ConcurrentHashMap node: header, hash, key, value, next
+    private static final long MAP_NODE = align(OBJECT_HEADER + Integer.BYTES + 3 * REFERENCE);
+    //boxed Integer (values of the dictionary map)
+    private static final long INTEGER = align(OBJECT_HEADER + Integer.BYTES);
+
+    private final Set<Object> counted = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<String, Long> bytesByStructure = new LinkedHashMap<>();
+
+    /**
+     * adds the loaded versions: their dictionary, the entries shared by all versions and every structure of the versions
+     * @return the bytes added
+     */
+    public long addVersions(List<PreparedPSL> versions) {
+        return addVersions(versions, "");
+    }
+
+    /**
+     * adds a structure that is not part of a version (e.g. an index)
+     * @param bytes the estimated bytes of the structure (see the static estimation methods)
+     */
+    public void add(String structure, Object instance, long bytes) {
+        if(counted.add(instance)) {
+            bytesByStructure.merge(structure, bytes, Long::sum);
+        }
+    }
+
+    /**
+     * adds versions with every structure reported separately (e.g. the versions a running game still holds after a
+     * reload; structures that are shared with the loaded versions are not counted again if they were added before)
+     * @param prefix prefix of the names of the structures
+     * @return the bytes added
+     */
+    public long addVersions(List<PreparedPSL> versions, String prefix) {
+        final long before = getTotal();
+        add(prefix + "version list", versions, listBytes(versions));
+        for(PreparedPSL version: versions) {
+            add(prefix + "rule dictionary", version.getDictionary(), dictionaryBytes(version.getDictionary()));
+            add(prefix + "entries shared by all versions", version.getEntryIdsSharedByAll(), bitSetBytes(version.getEntryIdsSharedByAll()));
+            add(prefix + "version objects", version, align(OBJECT_HEADER + Long.BYTES + 10 * REFERENCE));
+            add(prefix + "version objects", version.getCommitHash(), stringBytes(version.getCommitHash()));
+            add(prefix + "entries (bitsets)", version.getVersionEntries(), version.getVersionEntries().estimateHeapBytes());
+            add(prefix + "added/removed entries", version.getAddedEntryIds(), intArrayBytes(version.getAddedEntryIds()));
+            add(prefix + "added/removed entries", version.getRemovedEntryIds(), intArrayBytes(version.getRemovedEntryIds()));
+            add(prefix + "wildcards", version.getWildcardIds(), intArrayBytes(version.getWildcardIds()));
+            addStrings(prefix + "equal lists", version.getEqualPSLs());
+            addStrings(prefix + "equal lists", version.getEqualWithoutTLDEntries());
+            final Map<String, String> mapping = version.getExceptionToWildcardMapping();
+            add(prefix + "exception-wildcard-mappings", mapping, mapBytes(mapping));
+            addStrings(prefix + "exception-wildcard-mappings", mapping.keySet());
+            addStrings(prefix + "exception-wildcard-mappings", mapping.values());
+        }
+        return getTotal() - before;
+    }
+
+    private void addStrings(String structure, Collection<String> strings) {
+        if(strings instanceof List) {
+            add(structure, strings, listBytes(strings));
+        }
+        for(String s: strings) {
+            add(structure, s, stringBytes(s));
+        }
+    }
+
+    public long getTotal() {
+        return bytesByStructure.values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    /**
+     * @return structure -> estimated bytes (in the order the structures were added)
+     */
+    public Map<String, Long> getBytesByStructure() {
+        return Collections.unmodifiableMap(bytesByStructure);
+    }
+
+    /**
+     * @return one line per structure and the total
+     */
+    @Override
+    public String toString() {
+        final StringBuilder report = new StringBuilder();
+        bytesByStructure.forEach((structure, bytes) -> report.append(structure).append(": ").append(format(bytes)).append('\n'));
+        report.append("total: ").append(format(getTotal())).append('\n');
+        return report.toString();
+    }
+
+    public static String format(long bytes) {
+        if(bytes < 1024) {
+            return bytes + " B";
+        } else if(bytes < 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        }
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024.0));
+    }
+
+    public static long align(long bytes) {
+        return (bytes + 7) / 8 * 8;
+    }
+
+    public static long arrayBytes(int length, int elementBytes) {
+        return align(ARRAY_HEADER + (long) length * elementBytes);
+    }
+
+    public static long intArrayBytes(int[] array) {
+        return arrayBytes(array.length, Integer.BYTES);
+    }
+
+    /**
+     * @return the bytes of the bitset and its words
+     */
+    public static long bitSetBytes(BitSet bitSet) {
+        //words, wordsInUse, sizeIsSticky
+        return align(OBJECT_HEADER + REFERENCE + Integer.BYTES + 1) + arrayBytes(bitSet.size() / Long.SIZE, Long.BYTES);
+    }
+
+    /**
+     * @return the bytes of the string and its value array (latin-1 strings use one byte per char)
+     */
+    public static long stringBytes(String s) {
+        boolean latin1 = true;
+        for(int i = 0; i<s.length() && latin1; i++) {
+            latin1 = s.charAt(i) < 256;
+        }
+        //value, hash, coder, hashIsZero
+        return align(OBJECT_HEADER + REFERENCE + Integer.BYTES + 2) + arrayBytes(s.length(), latin1 ? 1 : 2);
+    }
+
+    /**
+     * @return the bytes of a list (an ArrayList, possibly wrapped as unmodifiable list) without its elements
+     */
+    public static long listBytes(Collection<?> list) {
+        return align(OBJECT_HEADER + REFERENCE) + align(OBJECT_HEADER + 2 * Integer.BYTES + REFERENCE)
+                + arrayBytes(list.size(), REFERENCE);
+    }
+
+    /**
+     * @return the bytes of a map (a HashMap, possibly wrapped as unmodifiable map) without its keys and values
+     */
+    public static long mapBytes(Map<?, ?> map) {
+        return align(OBJECT_HEADER + 3 * REFERENCE) + align(OBJECT_HEADER + 4 * REFERENCE + 3 * Integer.BYTES + Float.BYTES)
+                + (map.isEmpty() ? 0 : arrayBytes(tableSize(map.size()), REFERENCE)) + map.size() * MAP_NODE;
+    }
+
+    /**
+     * @return the bytes of the dictionary: rule strings, rule and classification arrays and the id map
+     */
+    public static long dictionaryBytes(RuleDictionary dictionary) {
+        long bytes = align(OBJECT_HEADER + 3 * REFERENCE + Integer.BYTES);
+        for(int id = 0; id<dictionary.size(); id++) {
+            bytes += stringBytes(dictionary.getRule(id));
+        }
+        bytes += 2 * arrayBytes(dictionary.size(), Integer.BYTES);
+        bytes += arrayBytes(tableSize(dictionary.size()), REFERENCE) + dictionary.size() * (MAP_NODE + INTEGER);
+        return bytes;
+    }
+
+    /**
+     * @return the length of the table of a hash map with the given number of entries (load factor 0.75)
+     */
+    private static int tableSize(int entries) {
+        return Integer.highestOneBit(Math.max(1, (int) (entries / 0.75f)) * 2 - 1);
+    }
+}
@@ -0,0 +1,36 @@
+package model;
+
+import java.util.BitSet;
+
+/**
+ * entries of a version that are already built as bitsets (see VersionEntries.of())
+ */
+class HydratedVersionEntries implements VersionEntries {
+    private final BitSet entryIds;
+    private final BitSet tldEntryIds;
+
+    HydratedVersionEntries(BitSet entryIds, BitSet tldEntryIds) {
+        this.entryIds = entryIds;
+        this.tldEntryIds = tldEntryIds;
+    }
+
+    @Override
+    public boolean containsEntryId(int ruleId) {
+        return entryIds.get(ruleId);
+    }
+
+    @Override
+    public BitSet getEntryIds() {
+        return entryIds;
+    }
+
+    @Override
+    public BitSet getTldEntryIds() {
+        return tldEntryIds;
+    }
+
+    @Override
+    public long estimateHeapBytes() {
+        return HeapFootprint.align(12 + 2 * 4) + HeapFootprint.bitSetBytes(entryIds) + HeapFootprint.bitSetBytes(tldEntryIds);
+    }
+}
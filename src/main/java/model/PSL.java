@@ -1,8 +1,9 @@
 package model;
 
+import java.util.BitSet;
 import java.util.Date;
-import java.util.HashSet;
 import java.util.List;
+import java.util.function.IntPredicate;
 
 /**
  * This class represents a PSL version that is downloaded by the PSLDownloader class
@@ -10,19 +11,18 @@ import java.util.List;
 public class PSL {
     private Date commitDate;
     private String commitHash;
-    private List<String> pslEntries;
-
-    //to speed up lookups
-    private HashSet<String> pslEntriesHashSet;
+    //bit i is set if the rule with id i (see RuleDictionary) is part of this version
+    private BitSet ruleIds;
+    private RuleDictionary dictionary;
 
     //only because it's interesting to know
     int numberOfEntriesThatAppearMoreThanOnce = 0;
-    public PSL(Date commitDate, String commitHash, List<String> pslEntries, int numberOfEntriesThatAppearMoreThanOnce) {
+    public PSL(Date commitDate, String commitHash, BitSet ruleIds, RuleDictionary dictionary, int numberOfEntriesThatAppearMoreThanOnce) {
         this.commitDate = commitDate;
         this.commitHash = commitHash;
-        this.pslEntries = pslEntries;
+        this.ruleIds = ruleIds;
+        this.dictionary = dictionary;
         this.numberOfEntriesThatAppearMoreThanOnce = numberOfEntriesThatAppearMoreThanOnce;
-        pslEntriesHashSet = new HashSet<>(pslEntries);
     }
 
     public Date getCommitDate() {
@@ -33,8 +33,22 @@ public class PSL {
         return commitHash;
     }
 
+    /**
+     * @return the entries ordered by rule id
+     */
     public List<String> getPslEntries() {
-        return pslEntries;
+        return dictionary.toRuleList(RuleIds.fromBitSet(ruleIds));
+    }
+
+    /**
+     * @return the rule ids of the entries; must not be modified
+     */
+    public BitSet getRuleIds() {
+        return ruleIds;
+    }
+
+    public RuleDictionary getDictionary() {
+        return dictionary;
     }
 
     public int getNumberOfEntriesThatAppearMoreThanOnce() {
@@ -42,6 +56,15 @@ public class PSL {
     }
 
     public boolean containsEntry(Object o) {
-        return pslEntriesHashSet.contains(o);
+        final int ruleId = dictionary.getId(o);
+        return ruleId >= 0 && containsRuleId(ruleId);
+    }
+
+    public boolean containsRuleId(int ruleId) {
+        return ruleIds.get(ruleId);
+    }
+
+    public void removeRuleIdsIf(IntPredicate filter) {
+        ruleIds = RuleIds.filter(ruleIds, filter.negate());
     }
 }
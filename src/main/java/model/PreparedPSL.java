@@ -14,47 +14,68 @@ import java.util.*;
  * - list of entries in this version without the entries that are present in all PSL versions
  * - list of commit Hashes od PSL version that are equal
  * - mapping exception->wildcard
+ *
+ * All entries are stored as rule ids of the RuleDictionary that is shared by all versions. The entries and the tld
+ * entries of a version are bitsets indexed by rule id (so membership tests and diffs are bit operations), the short
+ * lists (added/removed entries, wildcards) are sorted arrays. The entries shared by all versions are stored once and
+ * referenced by every version. The entries and tld entries of a version may be kept in their stored form and only be
+ * built when they are needed (see VersionEntries).
+ *
+ * A PreparedPSL never changes after it is created, so the loaded versions are shared by all games; the arrays and
+ * bitsets returned by the getters must not be modified.
  */
 public class PreparedPSL {
-    private long commitTimestamp;
-    private String commitHash;
-    private List<String> addedEntries;
-    private List<String> removedEntries;
-    private List<String> entries_without_the_ones_all_versions_have_in_common;
-    private List<String> equalPSLs;
-    private Set<String> tldEntries;
-    private List<String> equalWithoutTLDEntries;
-    private Map<String, String> exceptionToWildcardMapping;
-    private List<String> wildcards;
-
-    private Set<String> entries_that_all_versions_have_in_common;
-    //to speed up lookups
-    private HashSet<String> addedEntriesHashSet;
-    private HashSet<String> removedEntriesHashSet;
-    private HashSet<String> entriesWithoutSharedByAllHashSet;
-
-    public PreparedPSL(long commitTimestamp, String commitHash, Set<String> entries_that_all_versions_have_in_common,
-                       List<String> addedEntries, List<String> removedEntries,
-                       List<String> entries_without_the_ones_all_versions_have_in_common, List<String> equalPSLs,
-                       Set<String> tldEntries, List<String> equalWithoutTLDEntries,
+    private final long commitTimestamp;
+    private final String commitHash;
+    private final RuleDictionary dictionary;
+    private final int[] addedEntryIds;
+    private final int[] removedEntryIds;
+    //all entries of this version including the ones shared by all versions and the tld entries
+    private final VersionEntries entries;
+    private final List<String> equalPSLs;
+    private final List<String> equalWithoutTLDEntries;
+    private final Map<String, String> exceptionToWildcardMapping;
+    private final int[] wildcardIds;
+
+    private final BitSet entryIdsSharedByAll;
+
+    /**
+     * The bitsets are not copied and must not be modified afterwards.
+     * @param entryIds all entries of this version including the ones shared by all versions
+     */
+    public PreparedPSL(long commitTimestamp, String commitHash, RuleDictionary dictionary, BitSet entryIdsSharedByAll,
+                       int[] addedEntryIds, int[] removedEntryIds,
+                       BitSet entryIds, List<String> equalPSLs,
+                       BitSet tldEntryIds, List<String> equalWithoutTLDEntries,
                        Map<String, String> exceptionToWildcardMapping,
-                       List<String> wildcards) {
+                       int[] wildcardIds) {
+        this(commitTimestamp, commitHash, dictionary, entryIdsSharedByAll, addedEntryIds, removedEntryIds,
+                VersionEntries.of(entryIds, tldEntryIds), equalPSLs, equalWithoutTLDEntries,
+                exceptionToWildcardMapping, wildcardIds);
+    }
+
+    /**
+     * @param entries all entries of this version including the ones shared by all versions and the tld entries; may
+     *                be shared with other PreparedPSL objects
+     */
+    public PreparedPSL(long commitTimestamp, String commitHash, RuleDictionary dictionary, BitSet entryIdsSharedByAll,
+                       int[] addedEntryIds, int[] removedEntryIds,
+                       VersionEntries entries, List<String> equalPSLs,
+                       List<String> equalWithoutTLDEntries,
+                       Map<String, String> exceptionToWildcardMapping,
+                       int[] wildcardIds) {
         this.commitTimestamp = commitTimestamp;
         this.commitHash = commitHash;
+        this.dictionary = dictionary;
+        this.entryIdsSharedByAll = entryIdsSharedByAll;
+        this.addedEntryIds = addedEntryIds;
+        this.removedEntryIds = removedEntryIds;
+        this.entries = entries;
         //make lists unmodifiable
-        this.entries_that_all_versions_have_in_common = Collections.unmodifiableSet(entries_that_all_versions_have_in_common);
-        this.addedEntries = Collections.unmodifiableList(addedEntries);
-        this.removedEntries = Collections.unmodifiableList(removedEntries);
-        this.entries_without_the_ones_all_versions_have_in_common = Collections.unmodifiableList(entries_without_the_ones_all_versions_have_in_common);
         this.equalPSLs = Collections.unmodifiableList(equalPSLs);
-        this.tldEntries = Collections.unmodifiableSet(tldEntries);
         this.equalWithoutTLDEntries = Collections.unmodifiableList(equalWithoutTLDEntries);
         this.exceptionToWildcardMapping = Collections.unmodifiableMap(exceptionToWildcardMapping);
-        this.wildcards = wildcards;
-        //
-        setAddedEntries(this.addedEntries);
-        setRemovedEntries(this.removedEntries);
-        entriesWithoutSharedByAllHashSet = new HashSet<>(entries_without_the_ones_all_versions_have_in_common);
+        this.wildcardIds = wildcardIds;
     }
 
     public long getCommitTimestamp() {
@@ -65,48 +86,88 @@ public class PreparedPSL {
         return commitHash;
     }
 
+    public RuleDictionary getDictionary() {
+        return dictionary;
+    }
+
     public List<String> getAddedEntries() {
-        return addedEntries;
+        return dictionary.toRuleList(addedEntryIds);
     }
-    public void setAddedEntries(List<String> addedEntries) {
-        this.addedEntries = addedEntries;
-        addedEntriesHashSet = new HashSet<>(addedEntries);
+
+    public int[] getAddedEntryIds() {
+        return addedEntryIds;
     }
 
     public Set<String> getEntries_that_all_versions_have_in_common() {
-        return entries_that_all_versions_have_in_common;
+        return dictionary.toRuleSet(RuleIds.fromBitSet(entryIdsSharedByAll));
+    }
+
+    /**
+     * @return the rule ids of the entries shared by all versions; one instance is referenced by all versions, so it
+     * must not be modified
+     */
+    public BitSet getEntryIdsSharedByAll() {
+        return entryIdsSharedByAll;
     }
 
     public boolean containsAddedEntry(Object o) {
-        return addedEntriesHashSet.contains(o);
+        final int id = dictionary.getId(o);
+        return id >= 0 && RuleIds.contains(addedEntryIds, id);
     }
 
     public List<String> getRemovedEntries() {
-        return removedEntries;
+        return dictionary.toRuleList(removedEntryIds);
     }
-    public void setRemovedEntries(List<String> removedEntries) {
-        this.removedEntries = removedEntries;
-        removedEntriesHashSet = new HashSet<>(removedEntries);
+
+    public int[] getRemovedEntryIds() {
+        return removedEntryIds;
     }
+
     public boolean containsRemovedEntry(Object o) {
-        return removedEntriesHashSet.contains(o);
+        final int id = dictionary.getId(o);
+        return id >= 0 && RuleIds.contains(removedEntryIds, id);
     }
 
     public boolean containsEntry(Object o) {
-        boolean inEntriesWithoutSharedByALl =  entriesWithoutSharedByAllHashSet.contains(o);
-        if(inEntriesWithoutSharedByALl){
-            return true;
-        } else {
-            return entries_that_all_versions_have_in_common.contains(o);
-        }
+        final int id = dictionary.getId(o);
+        return id >= 0 && containsEntryId(id);
+    }
+
+    public boolean containsEntryId(int id) {
+        return entries.containsEntryId(id);
+    }
+
+    /**
+     * @return the entries of this version as they are stored (may be shared with other PreparedPSL objects)
+     */
+    VersionEntries getVersionEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the rule ids of all entries of this version including the ones shared by all versions; must not be modified
+     */
+    public BitSet getEntryIds() {
+        return entries.getEntryIds();
     }
 
     public List<String> getEntries_without_the_ones_all_versions_have_in_common() {
-        return entries_without_the_ones_all_versions_have_in_common;
+        return dictionary.toRuleList(RuleIds.fromBitSet(getEntryIdsWithoutSharedByAll()));
+    }
+
+    /**
+     * @return a new bitset with the rule ids of the entries of this version that are not shared by all versions
+     */
+    public BitSet getEntryIdsWithoutSharedByAll() {
+        return RuleIds.difference(getEntryIds(), entryIdsSharedByAll);
     }
 
     public List<String> getWildcards() {
-        return wildcards;
+        return dictionary.toRuleList(wildcardIds);
+    }
+
+    public int[] getWildcardIds() {
+        return wildcardIds;
     }
 
     public List<String> getEqualPSLs() {
@@ -114,7 +175,14 @@ public class PreparedPSL {
     }
 
     public Set<String> getTldEntries() {
-        return tldEntries;
+        return dictionary.toRuleSet(RuleIds.fromBitSet(getTldEntryIds()));
+    }
+
+    /**
+     * @return the rule ids of the tld entries; must not be modified
+     */
+    public BitSet getTldEntryIds() {
+        return entries.getTldEntryIds();
     }
 
     public List<String> getEqualWithoutTLDEntries() {
@@ -129,82 +197,65 @@ public class PreparedPSL {
         JSONObject ret = new JSONObject();
         ret.put("commit_timestamp", commitTimestamp);
         ret.put("commit_hash", commitHash);
-        final JSONArray entries_all_in_common = new JSONArray();
-        entries_that_all_versions_have_in_common.forEach(s -> entries_all_in_common.put(s));
-        ret.put("entries_that_all_versions_have_in_common", entries_all_in_common);
-        final JSONArray removed = new JSONArray();
-        removedEntries.forEach(s -> removed.put(s));
-        ret.put("removed_entries", removed);
-        final JSONArray added = new JSONArray();
-        addedEntries.forEach(s -> added.put(s));
-        ret.put("added_entries", added);
-        final JSONArray entries_without_all_in_common = new JSONArray();
-        entries_without_the_ones_all_versions_have_in_common.forEach(s -> entries_without_all_in_common.put(s));
-        ret.put("entries_without_the_ones_all_versions_have_in_common", entries_without_all_in_common);
-        final JSONArray equal = new JSONArray();
-        equalPSLs.forEach(s -> equal.put(s));
-        ret.put("equal_psls", equal);
-        final JSONArray tlds  = new JSONArray();
-        tldEntries.forEach(s -> tlds.put(s));
-        ret.put("tlds", tlds);
-        final JSONArray equalWOTLD = new JSONArray();
-        equalWithoutTLDEntries.forEach(s->equalWOTLD.put(s));
-        ret.put("equal_without_tlds", equalWOTLD);
+        ret.put("entries_that_all_versions_have_in_common", new JSONArray(getEntries_that_all_versions_have_in_common()));
+        ret.put("removed_entries", new JSONArray(getRemovedEntries()));
+        ret.put("added_entries", new JSONArray(getAddedEntries()));
+        ret.put("entries_without_the_ones_all_versions_have_in_common", new JSONArray(getEntries_without_the_ones_all_versions_have_in_common()));
+        ret.put("equal_psls", new JSONArray(equalPSLs));
+        ret.put("tlds", new JSONArray(getTldEntries()));
+        ret.put("equal_without_tlds", new JSONArray(equalWithoutTLDEntries));
         final JSONObject exceptionToWildcardJSON = new JSONObject();
         this.exceptionToWildcardMapping.forEach((s, s2) -> exceptionToWildcardJSON.put(s, s2));
         ret.put("exception_to_wildcard_mapping", exceptionToWildcardJSON);
-        final JSONArray wildcards_json = new JSONArray();
-        this.wildcards.forEach(s -> wildcards_json.put(s));
-        ret.put("wildcards", wildcards_json);
+        ret.put("wildcards", new JSONArray(getWildcards()));
         return ret;
     }
 
-    public static PreparedPSL fromJSONObject(JSONObject jsonObject) {
-        List<String> addedEntries = new ArrayList<>();
-        List<String> removedEntries = new ArrayList<>();
-        Set<String> entries_all_in_common = new HashSet<>();
-        List<String> entries_without_all_in_common = new ArrayList<>();
+    /**
+     * @param jsonObject a json object created by toJsonObject()
+     * @param dictionary the dictionary that is shared by all versions; the entries of this version are added to it
+     */
+    public static PreparedPSL fromJSONObject(JSONObject jsonObject, RuleDictionary dictionary) {
+        return fromJSONObject(jsonObject, dictionary, null);
+    }
+
+    /**
+     * @param jsonObject a json object created by toJsonObject()
+     * @param dictionary the dictionary that is shared by all versions; the entries of this version are added to it
+     * @param knownEntryIdsSharedByAll the entries shared by all versions of an already created version (may be null);
+     *                                 this instance is referenced instead of a new one if the entries are equal
+     */
+    public static PreparedPSL fromJSONObject(JSONObject jsonObject, RuleDictionary dictionary, BitSet knownEntryIdsSharedByAll) {
+        BitSet entryIdsSharedByAll = RuleIds.toBitSet(
+                ruleIdsFromJSONArray(jsonObject.getJSONArray("entries_that_all_versions_have_in_common"), dictionary));
+        if(entryIdsSharedByAll.equals(knownEntryIdsSharedByAll)) {
+            entryIdsSharedByAll = knownEntryIdsSharedByAll;
+        }
+        final BitSet entryIds = RuleIds.union(entryIdsSharedByAll, RuleIds.toBitSet(
+                ruleIdsFromJSONArray(jsonObject.getJSONArray("entries_without_the_ones_all_versions_have_in_common"), dictionary)));
+        return fromJSONObject(jsonObject, dictionary, entryIdsSharedByAll, entryIds);
+    }
+
+    /**
+     * creates a version whose entries are not (completely) part of the json object, like the versions of the delta
+     * chain written by PreparedPSLWriter. If the json object contains no tld entries or wildcards they are derived from
+     * the entries.
+     * @param jsonObject a json object with the keys of toJsonObject(); the entry lists are ignored
+     * @param dictionary the dictionary that is shared by all versions; the entries of this version are added to it
+     * @param entryIdsSharedByAll the entries shared by all versions (not copied)
+     * @param entryIds all entries of this version including the ones shared by all versions (not copied)
+     */
+    public static PreparedPSL fromJSONObject(JSONObject jsonObject, RuleDictionary dictionary,
+                                             BitSet entryIdsSharedByAll, BitSet entryIds) {
         List<String> equal = new ArrayList<>();
-        Set<String> tlds = new HashSet<>();
         List<String> equalWOTlds = new ArrayList<>();
         Map<String, String> exceptionToWildcard = new HashMap<>();
-        List<String> wildcardsEntries = new ArrayList<>();
-        {
-            JSONArray entries_that_all_versions_have_in_common = jsonObject.getJSONArray("entries_that_all_versions_have_in_common");
-            for(int i = 0; i<entries_that_all_versions_have_in_common.length(); i++) {
-                entries_all_in_common.add(entries_that_all_versions_have_in_common.getString(i));
-            }
-        }
-        {
-            JSONArray jsonArrayAddedEntries = jsonObject.getJSONArray("added_entries");
-            for (int i = 0; i < jsonArrayAddedEntries.length(); i++) {
-                addedEntries.add(jsonArrayAddedEntries.getString(i));
-            }
-        }
-        {
-            JSONArray jsonArrayRemovedEntries = jsonObject.getJSONArray("removed_entries");
-            for (int i = 0; i < jsonArrayRemovedEntries.length(); i++) {
-                removedEntries.add(jsonArrayRemovedEntries.getString(i));
-            }
-        }
-        {
-            JSONArray jsonEntries = jsonObject.getJSONArray("entries_without_the_ones_all_versions_have_in_common");
-            for(int i = 0; i<jsonEntries.length(); i++) {
-                entries_without_all_in_common.add(jsonEntries.getString(i));
-            }
-        }
         {
             JSONArray jsonEqual = jsonObject.getJSONArray("equal_psls");
             for(int i = 0; i<jsonEqual.length(); i++) {
                 equal.add(jsonEqual.getString(i));
             }
         }
-        {
-            JSONArray jsonTLDS = jsonObject.getJSONArray("tlds");
-            for (int i = 0; i < jsonTLDS.length(); i++) {
-                tlds.add(jsonTLDS.getString(i));
-            }
-        }
         {
             JSONArray jsonEqualWOTLD = jsonObject.getJSONArray("equal_without_tlds");
             for (int i = 0; i < jsonEqualWOTLD.length(); i++) {
@@ -218,60 +269,35 @@ public class PreparedPSL {
                 exceptionToWildcard.put(exception, wildcard);
             }
         }
-        {
-            JSONArray wildcards_json = jsonObject.getJSONArray("wildcards");
-            for(int i = 0; i<wildcards_json.length(); i++) {
-                wildcardsEntries.add(wildcards_json.getString(i));
-            }
-        }
-        return new PreparedPSL(jsonObject.getLong("commit_timestamp"), jsonObject.getString("commit_hash"),
-                entries_all_in_common, addedEntries, removedEntries, entries_without_all_in_common, equal,
-                tlds, equalWOTlds, exceptionToWildcard, wildcardsEntries);
+        final BitSet tldEntryIds = jsonObject.has("tlds")
+                ? RuleIds.toBitSet(ruleIdsFromJSONArray(jsonObject.getJSONArray("tlds"), dictionary))
+                : RuleIds.filter(entryIds, dictionary::isTLD);
+        final int[] wildcardIds = jsonObject.has("wildcards")
+                ? ruleIdsFromJSONArray(jsonObject.getJSONArray("wildcards"), dictionary)
+                : RuleIds.filter(RuleIds.fromBitSet(entryIds), dictionary::isWildcard);
+        return new PreparedPSL(jsonObject.getLong("commit_timestamp"), jsonObject.getString("commit_hash"), dictionary,
+                entryIdsSharedByAll,
+                ruleIdsFromJSONArray(jsonObject.getJSONArray("added_entries"), dictionary),
+                ruleIdsFromJSONArray(jsonObject.getJSONArray("removed_entries"), dictionary),
+                entryIds,
+                equal,
+                tldEntryIds,
+                equalWOTlds, exceptionToWildcard,
+                wildcardIds);
 
     }
 
-
-    public PreparedPSL copy() {
-        List<String> addedEntries = new ArrayList<>();
-        List<String> removedEntries = new ArrayList<>();
-        List<String> entries = new ArrayList<>();
-        List<String> equal = new ArrayList<>();
-        Set<String> tlds = new HashSet<>();
-        List<String> equalWOTLDs = new ArrayList<>();
-        Set<String> entries_all_in_common = new HashSet<>();
-        Map<String, String> exceptionToWildcard = new HashMap<>();
-        List<String> wildcardsCopy = new ArrayList<>();
-        for(String s: getAddedEntries()) {
-            addedEntries.add(s);
-        }
-
-        for(String s: getRemovedEntries()) {
-            removedEntries.add(s);
-        }
-
-        for(String s: getEntries_without_the_ones_all_versions_have_in_common()) {
-            entries.add(s);
+    /**
+     * @param jsonArray a json array of rules
+     * @param dictionary the dictionary the rules are added to
+     * @return the sorted rule ids of the rules (without duplicates)
+     */
+    public static int[] ruleIdsFromJSONArray(JSONArray jsonArray, RuleDictionary dictionary) {
+        final int[] ruleIds = new int[jsonArray.length()];
+        for(int i = 0; i<jsonArray.length(); i++) {
+            ruleIds[i] = dictionary.getOrAddId(jsonArray.getString(i));
         }
-
-        for(String s: getEqualPSLs()) {
-            equal.add(s);
-        }
-
-        for(String s: getTldEntries()) {
-            tlds.add(s);
-        }
-        for(String s: getEqualWithoutTLDEntries()) {
-            equalWOTLDs.add(s);
-        }
-        for(String s: entries_that_all_versions_have_in_common) {
-            entries_all_in_common.add(s);
-        }
-
-        getExceptionToWildcardMapping().forEach((s, s2) -> exceptionToWildcard.put(s, s2));
-
-        getWildcards().forEach(s -> wildcardsCopy.add(s));
-        return new PreparedPSL(getCommitTimestamp(), getCommitHash(), entries_all_in_common, addedEntries,
-                removedEntries, entries, equal,tlds, equalWOTLDs, exceptionToWildcard, wildcardsCopy);
+        return RuleIds.sortedDistinct(ruleIds);
     }
 
 
@@ -279,18 +305,15 @@ public class PreparedPSL {
         return "PreparedPSL{" +
                 "commitTimestamp=" + commitTimestamp +
                 ", commitHash='" + commitHash + '\'' +
-                ", entries_that_all_versions_have_in_common=" + entries_that_all_versions_have_in_common +
-                ", addedEntries=" + addedEntries +
-                ", removedEntries=" + removedEntries +
-                ", entries_without_the_ones_all_versions_have_in_common=" + entries_without_the_ones_all_versions_have_in_common +
+                ", entries_that_all_versions_have_in_common=" + getEntries_that_all_versions_have_in_common() +
+                ", addedEntries=" + getAddedEntries() +
+                ", removedEntries=" + getRemovedEntries() +
+                ", entries_without_the_ones_all_versions_have_in_common=" + getEntries_without_the_ones_all_versions_have_in_common() +
                 ", equalPSLs=" + equalPSLs +
-                ", tlds=" + tldEntries +
+                ", tlds=" + getTldEntries() +
                 ", euqal_without_tld=" + equalWithoutTLDEntries +
                 ", exceptionToWildcardMapping=" + exceptionToWildcardMapping +
-                ", addedEntriesHashSet=" + addedEntriesHashSet +
-                ", removedEntriesHashSet=" + removedEntriesHashSet +
-                ", entriesWithoutSharedByAllHashSet=" + entriesWithoutSharedByAllHashSet +
-                ", wildcards=" + wildcards +
+                ", wildcards=" + getWildcards() +
                 '}';
     }
 
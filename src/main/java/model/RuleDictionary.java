@@ -0,0 +1,192 @@
+package model;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class maps every distinct PSL entry (rule) to a dense int id. All PSL versions that are analyzed or loaded
+ * together share one dictionary, so every rule string is only stored once and a version can be stored as a sorted
+ * int array of rule ids (see RuleIds).
+ *
+ * Ids are assigned in the order the rules are added. The dictionary can be read and extended by multiple threads.
+ *
+ * Every rule is classified once when it is added (tld, wildcard, exception and number of labels), so the
+ * classification does not have to be derived from the rule string again for every version the rule is part of.
+ */
+public class RuleDictionary {
+    private static final int TLD = 1;
+    private static final int WILDCARD = 1 << 1;
+    private static final int EXCEPTION = 1 << 2;
+    //the remaining bits of a classification contain the number of labels
+    private static final int LABEL_COUNT_SHIFT = 3;
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] rules = new String[1024];
+    private volatile int[] classifications = new int[1024];
+    private volatile int size = 0;
+
+    /**
+     * @return the id of the rule, -1 if the rule is not part of the dictionary
+     */
+    public int getId(Object rule) {
+        if(rule == null) {
+            return -1;
+        }
+        final Integer id = ids.get(rule);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @return the id of the rule; the rule is added to the dictionary if it is not yet part of it
+     */
+    public int getOrAddId(String rule) {
+        final Integer id = ids.get(rule);
+        if(id != null) {
+            return id;
+        }
+        synchronized (this) {
+            final Integer existingId = ids.get(rule);
+            if(existingId != null) {
+                return existingId;
+            }
+            final int newId = size;
+            if(newId == rules.length) {
+                rules = Arrays.copyOf(rules, rules.length * 2);
+                classifications = Arrays.copyOf(classifications, classifications.length * 2);
+            }
+            rules[newId] = rule;
+            classifications[newId] = classify(rule);
+            size = newId + 1;
+            ids.put(rule, newId);
+            return newId;
+        }
+    }
+
+    /**
+     * @return the sorted ids of all rules (without duplicates); rules that are not yet part of the dictionary are added
+     */
+    public int[] getOrAddIds(Collection<String> rules) {
+        final int[] ruleIds = new int[rules.size()];
+        int i = 0;
+        for(String rule: rules) {
+            ruleIds[i++] = getOrAddId(rule);
+        }
+        return RuleIds.sortedDistinct(ruleIds);
+    }
+
+    public String getRule(int id) {
+        return rules[id];
+    }
+
+    /**
+     * @return true if the rule is a tld entry (entries like "com", ".com" or "com.")
+     */
+    public boolean isTLD(int id) {
+        return (classifications[id] & TLD) != 0;
+    }
+
+    /**
+     * @return true if the rule contains "*" and is no exception
+     */
+    public boolean isWildcard(int id) {
+        return (classifications[id] & WILDCARD) != 0;
+    }
+
+    /**
+     * @return true if the rule starts with "!"
+     */
+    public boolean isException(int id) {
+        return (classifications[id] & EXCEPTION) != 0;
+    }
+
+    /**
+     * @return the number of labels of the rule (as in rule.split("\\.").length)
+     */
+    public int getLabelCount(int id) {
+        return classifications[id] >>> LABEL_COUNT_SHIFT;
+    }
+
+    private static int classify(String rule) {
+        int classification = rule.split("\\.").length << LABEL_COUNT_SHIFT;
+        if(rule.startsWith("!")) {
+            classification |= EXCEPTION;
+        } else if(rule.contains("*")) {
+            classification |= WILDCARD;
+        }
+        String s = rule;
+        if(s.startsWith(".")) {
+            s = s.substring(1);
+        }
+        if(s.endsWith(".")) {
+            s = s.substring(0,s.length()-1);
+        }
+        if(!s.contains(".")) {
+            classification |= TLD;
+        }
+        return classification;
+    }
+
+    /**
+     * @return the number of rules; all ids are smaller than this number
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return an unmodifiable list view of the rules with the given ids (same order)
+     */
+    public List<String> toRuleList(int[] ruleIds) {
+        return new RuleList(ruleIds);
+    }
+
+    /**
+     * @param sortedRuleIds sorted rule ids without duplicates
+     * @return an unmodifiable set view of the rules with the given ids
+     */
+    public Set<String> toRuleSet(int[] sortedRuleIds) {
+        return new RuleSet(sortedRuleIds);
+    }
+
+    private class RuleList extends AbstractList<String> implements RandomAccess {
+        private final int[] ruleIds;
+
+        RuleList(int[] ruleIds) {
+            this.ruleIds = ruleIds;
+        }
+
+        @Override
+        public String get(int index) {
+            return getRule(ruleIds[index]);
+        }
+
+        @Override
+        public int size() {
+            return ruleIds.length;
+        }
+    }
+
+    private class RuleSet extends AbstractSet<String> {
+        private final int[] sortedRuleIds;
+
+        RuleSet(int[] sortedRuleIds) {
+            this.sortedRuleIds = sortedRuleIds;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            final int id = getId(o);
+            return id >= 0 && RuleIds.contains(sortedRuleIds, id);
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            return toRuleList(sortedRuleIds).iterator();
+        }
+
+        @Override
+        public int size() {
+            return sortedRuleIds.length;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+
+/**
+ * Set operations on sorted int arrays of rule ids (see RuleDictionary). All arrays passed to and returned by these
+ * methods are sorted in ascending order and do not contain duplicates.
+ *
+ * Larger sets (e.g. all entries of a version) are stored as bitsets indexed by rule id; the bitset methods never
+ * modify their arguments.
+ */
+public class RuleIds {
+    public static final int[] EMPTY = new int[0];
+
+    private RuleIds() {
+    }
+
+    /**
+     * @param ruleIds ids in any order, may contain duplicates; the array is sorted in place
+     * @return the sorted ids without duplicates
+     */
+    public static int[] sortedDistinct(int[] ruleIds) {
+        Arrays.sort(ruleIds);
+        int size = 0;
+        for(int i = 0; i<ruleIds.length; i++) {
+            if(size == 0 || ruleIds[size - 1] != ruleIds[i]) {
+                ruleIds[size++] = ruleIds[i];
+            }
+        }
+        return size == ruleIds.length ? ruleIds : Arrays.copyOf(ruleIds, size);
+    }
+
+    public static boolean contains(int[] sortedRuleIds, int ruleId) {
+        return Arrays.binarySearch(sortedRuleIds, ruleId) >= 0;
+    }
+
+    /**
+     * @return all ids of a that are not in b
+     */
+    public static int[] difference(int[] a, int[] b) {
+        final int[] result = new int[a.length];
+        int size = 0;
+        int j = 0;
+        for(int id: a) {
+            while(j < b.length && b[j] < id) {
+                j++;
+            }
+            if(j == b.length || b[j] != id) {
+                result[size++] = id;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @return all ids that are in a or b
+     */
+    public static int[] union(int[] a, int[] b) {
+        final int[] result = new int[a.length + b.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while(i < a.length || j < b.length) {
+            if(j == b.length || (i < a.length && a[i] < b[j])) {
+                result[size++] = a[i++];
+            } else if(i == a.length || b[j] < a[i]) {
+                result[size++] = b[j++];
+            } else {
+                result[size++] = a[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @return all ids that match the filter
+     */
+    public static int[] filter(int[] ruleIds, IntPredicate filter) {
+        return Arrays.stream(ruleIds).filter(filter).toArray();
+    }
+
+    /**
+     * @return all ids of the bitset that match the filter
+     */
+    public static BitSet filter(BitSet ruleIds, IntPredicate filter) {
+        final BitSet result = new BitSet(ruleIds.length());
+        ruleIds.stream().filter(filter).forEach(result::set);
+        return result;
+    }
+
+    public static BitSet toBitSet(int[] ruleIds) {
+        final BitSet bitSet = new BitSet(ruleIds.length == 0 ? 0 : ruleIds[ruleIds.length - 1] + 1);
+        for(int id: ruleIds) {
+            bitSet.set(id);
+        }
+        return bitSet;
+    }
+
+    /**
+     * @return the ids of the bitset as sorted array
+     */
+    public static int[] fromBitSet(BitSet ruleIds) {
+        return ruleIds.stream().toArray();
+    }
+
+    /**
+     * @return all ids of a that are not in b (new bitset)
+     */
+    public static BitSet difference(BitSet a, BitSet b) {
+        final BitSet result = (BitSet) a.clone();
+        result.andNot(b);
+        return result;
+    }
+
+    /**
+     * @return all ids that are in a or b (new bitset)
+     */
+    public static BitSet union(BitSet a, BitSet b) {
+        final BitSet result = (BitSet) a.clone();
+        result.or(b);
+        return result;
+    }
+}
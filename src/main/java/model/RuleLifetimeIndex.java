@@ -0,0 +1,189 @@
+package model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Index of the lifetime of every rule: for every rule id the intervals of versions (by index in the list ordered by
+ * commit date asc) that contain the rule. Most rules are part of one or two contiguous runs of versions, so the index is
+ * much smaller than the entries of all versions, and questions like "which versions contain the rule", "when was the
+ * rule added/removed" or "do some but not all of these versions contain the rule" are answered with the intervals of
+ * one rule instead of looking at every version.
+ *
+ * The intervals of all rules are stored in one array (start inclusive, end exclusive, ordered by start); the intervals
+ * of rule i are the bounds between offsets[i] and offsets[i+1].
+ */
+public class RuleLifetimeIndex {
+    private final RuleDictionary dictionary;
+    private final long[] commitTimestamps;
+    private final int[] offsets;
+    private final int[] bounds;
+
+    private RuleLifetimeIndex(RuleDictionary dictionary, long[] commitTimestamps, int[] offsets, int[] bounds) {
+        this.dictionary = dictionary;
+        this.commitTimestamps = commitTimestamps;
+        this.offsets = offsets;
+        this.bounds = bounds;
+    }
+
+    /**
+     * Only the words of the entry bitsets are read (see VersionEntries.getEntryWords()), so the versions of a mapped
+     * snapshot are not built.
+     * @param preparedPSLs the versions ordered by commit date asc (all sharing one dictionary)
+     */
+    public static RuleLifetimeIndex build(List<PreparedPSL> preparedPSLs) {
+        final RuleDictionary dictionary = preparedPSLs.isEmpty() ? new RuleDictionary() : preparedPSLs.get(0).getDictionary();
+        final long[] commitTimestamps = new long[preparedPSLs.size()];
+        //the bounds in the order they are found: a rule appears (start) or disappears (end) in a version
+        int[] eventRuleIds = new int[1024];
+        int[] eventVersions = new int[1024];
+        int events = 0;
+        long[] previous = new long[0];
+        for(int i = 0; i<=preparedPSLs.size(); i++) {
+            //after the last version all rules disappear
+            final long[] current = i < preparedPSLs.size() ? preparedPSLs.get(i).getVersionEntries().getEntryWords() : new long[0];
+            if(i < preparedPSLs.size()) {
+                commitTimestamps[i] = preparedPSLs.get(i).getCommitTimestamp();
+            }
+            for(int w = 0; w<Math.max(current.length, previous.length); w++) {
+                long changed = (w < current.length ? current[w] : 0) ^ (w < previous.length ? previous[w] : 0);
+                while(changed != 0) {
+                    if(events == eventRuleIds.length) {
+                        eventRuleIds = Arrays.copyOf(eventRuleIds, events * 2);
+                        eventVersions = Arrays.copyOf(eventVersions, events * 2);
+                    }
+                    eventRuleIds[events] = w * Long.SIZE + Long.numberOfTrailingZeros(changed);
+                    eventVersions[events] = i;
+                    events++;
+                    //clear the lowest set bit
+                    changed &= changed - 1;
+                }
+            }
+            previous = current;
+        }
+        //group the bounds by rule; the bounds of one rule stay ordered by version
+        final int[] offsets = new int[dictionary.size() + 1];
+        for(int i = 0; i<events; i++) {
+            offsets[eventRuleIds[i] + 1]++;
+        }
+        for(int ruleId = 0; ruleId<dictionary.size(); ruleId++) {
+            offsets[ruleId + 1] += offsets[ruleId];
+        }
+        final int[] bounds = new int[events];
+        final int[] next = Arrays.copyOf(offsets, dictionary.size());
+        for(int i = 0; i<events; i++) {
+            bounds[next[eventRuleIds[i]]++] = eventVersions[i];
+        }
+        return new RuleLifetimeIndex(dictionary, commitTimestamps, offsets, bounds);
+    }
+
+    public RuleDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int getVersionCount() {
+        return commitTimestamps.length;
+    }
+
+    public long getCommitTimestamp(int versionIndex) {
+        return commitTimestamps[versionIndex];
+    }
+
+    /**
+     * @return the intervals of versions that contain the rule as pairs of version indexes (start inclusive, end
+     * exclusive) ordered by start; empty if the rule is not part of any version
+     */
+    public int[] getIntervals(int ruleId) {
+        if(ruleId < 0 || ruleId + 1 >= offsets.length) {
+            return RuleIds.EMPTY;
+        }
+        return Arrays.copyOfRange(bounds, offsets[ruleId], offsets[ruleId + 1]);
+    }
+
+    /**
+     * @return true if the version with the given index contains the rule
+     */
+    public boolean contains(int ruleId, int versionIndex) {
+        if(ruleId < 0 || ruleId + 1 >= offsets.length) {
+            return false;
+        }
+        final int from = offsets[ruleId];
+        final int index = Arrays.binarySearch(bounds, from, offsets[ruleId + 1], versionIndex);
+        //the version is contained if an odd number of bounds is <= the version index
+        return index >= 0 ? (index - from) % 2 == 0 : (-index - 1 - from) % 2 == 1;
+    }
+
+    /**
+     * @return the indexes of the versions that contain the rule
+     */
+    public BitSet getVersionsContaining(int ruleId) {
+        final BitSet versions = new BitSet(getVersionCount());
+        final int[] intervals = getIntervals(ruleId);
+        for(int i = 0; i<intervals.length; i += 2) {
+            versions.set(intervals[i], intervals[i + 1]);
+        }
+        return versions;
+    }
+
+    /**
+     * @param versionIndexes indexes of versions
+     * @return the number of the given versions that contain the rule
+     */
+    public int countVersionsContaining(int ruleId, BitSet versionIndexes) {
+        return countVersionsContaining(ruleId, versionIndexes.toLongArray());
+    }
+
+    /**
+     * counts the versions of every interval of the rule word by word; use this instead of the BitSet variant to count
+     * many rules for the same versions
+     * @param versionWords indexes of versions as returned by BitSet.toLongArray()
+     * @return the number of the given versions that contain the rule
+     */
+    public int countVersionsContaining(int ruleId, long[] versionWords) {
+        if(ruleId < 0 || ruleId + 1 >= offsets.length) {
+            return 0;
+        }
+        int count = 0;
+        for(int i = offsets[ruleId]; i<offsets[ruleId + 1]; i += 2) {
+            count += countBits(versionWords, bounds[i], bounds[i + 1]);
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of set bits in [from, to)
+     */
+    private static int countBits(long[] words, int from, int to) {
+        final int lastWord = Math.min((to - 1) >> 6, words.length - 1);
+        int count = 0;
+        for(int w = from >> 6; w <= lastWord; w++) {
+            long word = words[w];
+            if(w == from >> 6) {
+                word &= -1L << from;
+            }
+            if(w == (to - 1) >> 6) {
+                word &= -1L >>> -to;
+            }
+            count += Long.bitCount(word);
+        }
+        return count;
+    }
+
+    /**
+     * @return the estimated heap bytes of the index (see HeapFootprint)
+     */
+    public long estimateHeapBytes() {
+        return HeapFootprint.align(12 + 4 * 4) + HeapFootprint.arrayBytes(commitTimestamps.length, Long.BYTES)
+                + HeapFootprint.intArrayBytes(offsets) + HeapFootprint.intArrayBytes(bounds);
+    }
+
+    /**
+     * @param versionIndexes indexes of versions
+     * @return true if some but not all of the given versions contain the rule
+     */
+    public boolean splits(int ruleId, BitSet versionIndexes) {
+        final int count = countVersionsContaining(ruleId, versionIndexes);
+        return count > 0 && count < versionIndexes.cardinality();
+    }
+}
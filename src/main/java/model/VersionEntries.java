@@ -0,0 +1,45 @@
+package model;
+
+import java.util.BitSet;
+
+/**
+ * The entries of a prepared psl version (including the ones shared by all versions) and its tld entries as rule ids.
+ * An implementation can keep the entries in the form they are stored in (e.g. a memory mapped snapshot) and build the
+ * bitsets only when they are needed; membership tests do not need the bitsets.
+ *
+ * The entries never change, so one instance can be shared by several PreparedPSL objects.
+ */
+public interface VersionEntries {
+    boolean containsEntryId(int ruleId);
+
+    /**
+     * @return the rule ids of all entries of the version including the ones shared by all versions; must not be modified
+     */
+    BitSet getEntryIds();
+
+    /**
+     * @return the rule ids of the tld entries; must not be modified
+     */
+    BitSet getTldEntryIds();
+
+    /**
+     * @return the words of the bitset of all entries (see BitSet.toLongArray()); an implementation that keeps the entries
+     * in their stored form reads the words without building the bitset
+     */
+    default long[] getEntryWords() {
+        return getEntryIds().toLongArray();
+    }
+
+    /**
+     * @return the estimated heap bytes held by this instance including the bitsets that are currently built (entries
+     * that stay in their stored form, e.g. a mapped file, are not on the heap); see HeapFootprint
+     */
+    long estimateHeapBytes();
+
+    /**
+     * @return entries that are already built as bitsets (the bitsets are not copied)
+     */
+    static VersionEntries of(BitSet entryIds, BitSet tldEntryIds) {
+        return new HydratedVersionEntries(entryIds, tldEntryIds);
+    }
+}
@@ -0,0 +1,93 @@
+package prepare;
+
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+/**
+ * This class groups psl versions that contain the same entries. The versions are bucketed by an order independent
+ * fingerprint of their entries, so a version only has to be compared entry by entry to the groups with the same
+ * fingerprint (to rule out collisions) instead of to every other version.
+ */
+class EqualityGroups {
+    //every group is a list of commit hashes ordered by the time they were added
+    private final List<List<String>> groups = new ArrayList<>();
+    private final Map<Long, List<Integer>> groupIndicesByFingerprint = new HashMap<>();
+
+    /**
+     * adds an already known group (e.g. read from the manifest of a previous run)
+     * @param group the commit hashes of the versions in the group
+     * @param fingerprint the fingerprint of the entries of the versions in the group
+     */
+    void addGroup(List<String> group, long fingerprint) {
+        groups.add(new ArrayList<>(group));
+        groupIndicesByFingerprint.computeIfAbsent(fingerprint, f -> new ArrayList<>()).add(groups.size() - 1);
+    }
+
+    /**
+     * adds the version to the group with the same entries or to a new group if there is no such group
+     * @param commitHash the commit hash of the version
+     * @param fingerprint the fingerprint of the entries of the version
+     * @param isEqualTo compares the version entry by entry to the version with the given commit hash (the latest
+     *                  member of a candidate group; usually the version that was added just before)
+     */
+    void add(String commitHash, long fingerprint, Predicate<String> isEqualTo) {
+        final List<Integer> candidates = groupIndicesByFingerprint.computeIfAbsent(fingerprint, f -> new ArrayList<>());
+        for(int groupIndex: candidates) {
+            final List<String> group = groups.get(groupIndex);
+            if(isEqualTo.test(group.get(group.size() - 1))) {
+                group.add(commitHash);
+                return;
+            }
+        }
+        //no group with the same fingerprint or only collisions
+        final List<String> group = new ArrayList<>();
+        group.add(commitHash);
+        groups.add(group);
+        candidates.add(groups.size() - 1);
+    }
+
+    List<List<String>> getGroups() {
+        return groups;
+    }
+
+    /**
+     * @return a map commit hash -> commit hashes of all other versions in the same group
+     */
+    Map<String, List<String>> toEqualLists() {
+        final Map<String, List<String>> equalLists = new HashMap<>();
+        for(List<String> group: groups) {
+            for(String commitHash: group) {
+                equalLists.put(commitHash, group.stream().filter(s -> !s.equals(commitHash)).collect(Collectors.toList()));
+            }
+        }
+        return equalLists;
+    }
+
+    /**
+     * The fingerprint is the sum of a 64 bit hash of every entry. Hence, it does not depend on the order of the entries
+     * and the fingerprint of a subset can be subtracted (e.g. to get the fingerprint of a version without its tld
+     * entries).
+     * @return the fingerprint of the entries
+     */
+    static long fingerprint(Collection<String> entries) {
+        long fingerprint = 0;
+        for(String entry: entries) {
+            fingerprint += hash(entry);
+        }
+        return fingerprint;
+    }
+
+    private static long hash(String entry) {
+        //FNV-1a
+        long hash = 0xcbf29ce484222325L;
+        for(int i = 0; i<entry.length(); i++) {
+            hash ^= entry.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        //spread the bits (splitmix64 finalizer) as the hashes are added up
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+}
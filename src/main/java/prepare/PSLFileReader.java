@@ -2,24 +2,59 @@ package prepare;
 
 import model.PSL;
 import model.PreparedPSL;
-import org.json.JSONArray;
+import model.RuleDictionary;
+import model.RuleIds;
 import util.Filenames;
+import util.PSLArchive;
+import util.PreparedPSLReader;
+import util.PreparedPSLWriter;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 /**
- * This class reads all PSL versions stored in the PSL_FOLDER, analyzes them, prepares "extended" lists with
- * additional information (see PreparedPSL) and stores these lists in a json file.
+ * This class reads all PSL versions stored in the PSL_ARCHIVE (see PSLArchive) or, if there is no archive, in the
+ * PSL_FOLDER, analyzes them, prepares "extended" lists with
+ * additional information (see PreparedPSL) and stores these lists in a json file and a binary snapshot
+ * (see PreparedPSLSnapshot).
+ *
+ * If started with the argument --incremental only the versions that have not been processed by a previous run
+ * (see PrepareManifest) are read and appended to the existing json file.
+ *
+ * If started with the argument --low-memory the versions are read twice but only a few versions are kept in memory
+ * at a time (see prepareWithBoundedMemory).
+ *
+ * The parsed versions are cached in the PARSED_CACHE_FILE (see ParsedPSLCache), so a re-run only parses the versions
+ * that are new or were modified.
  */
 public class PSLFileReader {
 
     private static final String PSL_FOLDER = Filenames.PSL_VERSIONS_FOLDER;
 
+    private static final String PSL_ARCHIVE = Filenames.PSL_VERSIONS_ARCHIVE;
+
     private static final String OUTPUT_FILE= Filenames.PREPARED_PSL_JSON;
 
+    private static final String MANIFEST_FILE = Filenames.PREPARED_PSL_MANIFEST;
+
+    private static final String SNAPSHOT_FILE = Filenames.PREPARED_PSL_SNAPSHOT;
+
+    private static final String PARSED_CACHE_FILE = Filenames.PARSED_PSL_CACHE;
+
+    private static final String INCREMENTAL_ARGUMENT = "--incremental";
+
+    private static final String LOW_MEMORY_ARGUMENT = "--low-memory";
+
     final static SimpleDateFormat SDF = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss");
 
     /**
@@ -29,9 +64,30 @@ public class PSLFileReader {
     private static int percentagePrintedCounter = 0;
     /***/
 
+    /**
+     * the parsed versions of previous runs; versions parsed by this run are added
+     */
+    private static ParsedPSLCache parsedCache;
+
+    /**
+     * the directory that contains the input and output files; null for the working directory
+     */
+    private static File directory;
+
     public static void main(String[] args) {
+        final boolean incremental = Arrays.asList(args).contains(INCREMENTAL_ARGUMENT);
+        final boolean lowMemory = Arrays.asList(args).contains(LOW_MEMORY_ARGUMENT);
+        prepare(null, incremental, lowMemory);
+    }
+
+    /**
+     * prepares the psl versions like main does
+     * @param directory the directory that contains the input and output files; null for the working directory
+     */
+    static void prepare(File directory, boolean incremental, boolean lowMemory) {
+        PSLFileReader.directory = directory;
         //prepare output file
-        final File outputFile = new File(OUTPUT_FILE);
+        final File outputFile = file(OUTPUT_FILE);
         if(outputFile.exists()) {
             if(!outputFile.canWrite()) {
                 System.err.println("cannot write to output file");
@@ -53,387 +109,800 @@ public class PSLFileReader {
         /**
          * read files
          */
-        final File pslfolder = new File(PSL_FOLDER);
-        if(pslfolder.exists()) {
-            if(pslfolder.canRead()) {
-                final File[] files = pslfolder.listFiles();
-                final List<File> readableFiles = new ArrayList<>();
-                printNewHeader("found: " + files.length+" files", false);
-                for(File f: files ) {
-                    if(f.canRead()) {
-                        readableFiles.add(f);
-                    } else {
-                        System.err.println("cannot read file: " +f.getName());
-                    }
+        final List<PSLSource> sources = listSources();
+        if(sources == null) {
+            return;
+        }
+        try {
+            parsedCache = ParsedPSLCache.open(file(PARSED_CACHE_FILE),
+                    sources.stream().map(PSLSource::getCacheKey).collect(Collectors.toList()));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("cannot write " + PARSED_CACHE_FILE);
+            return;
+        }
+        try {
+            if(incremental && prepareIncrementally(sources, outputFile)) {
+                return;
+            }
+            if(lowMemory) {
+                prepareWithBoundedMemory(sources, outputFile);
+            } else {
+                prepareAll(sources, outputFile);
+            }
+        } finally {
+            try {
+                parsedCache.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("error while writing " + PARSED_CACHE_FILE);
+            }
+        }
+    }
+
+    /**
+     * @return the file with this name in the directory
+     */
+    private static File file(String name) {
+        return new File(directory, name);
+    }
+
+    /**
+     * @return all psl versions of the PSL_ARCHIVE if it exists, otherwise the files in the PSL_FOLDER (files that are
+     * not named correctly are skipped); null if the versions cannot be read
+     */
+    private static List<PSLSource> listSources() {
+        final File archiveFile = file(PSL_ARCHIVE);
+        if(archiveFile.exists()) {
+            try {
+                final PSLArchive archive = PSLArchive.open(archiveFile);
+                printNewHeader("found: " + archive.getVersions().size()+" versions in "+PSL_ARCHIVE, false);
+                final List<PSLSource> sources = new ArrayList<>();
+                for(PSLArchive.Version version: archive.getVersions()) {
+                    sources.add(new PSLSource(version.getCommitTimestamp(), version.getCommitHash(), null, archive, version));
                 }
-                if(readableFiles.size() == files.length) {
-                    //all can be read: continue
-                    printNewHeader("read all", true);
-                    final List<PSL> pslList = new ArrayList<>(readableFiles.size());
-                    readableFiles.stream().forEach(file -> {
-                        try {
-                            newItemProcessed(readableFiles.size());
-                            pslList.add(readIntoPSL(file));
-                        } catch (InvalidFilenameException e) {
-                            System.err.println("invalid filename: " + file.getName());
-                            return;
-                        }
-                    });
-                    printNewHeader("sort PSLs", true);
-                    //all files in list; not sort the list by commit date asc
-                    pslList.sort((o1, o2) -> {
-                        final long diff = o1.getCommitDate().getTime() - o2.getCommitDate().getTime();
-                        if (diff > 0) {
-                            return 1;
-                        } else if (diff < 0) {
-                            return -1;
-                        } else {
-                            return 0;
-                        }
-                    });
-                    //here the list should be ordered from first to latest
-
-                    /**
-                     * count how many items are present more than once on average per PSL version
-                     */
-                    int total = 0;
-                    for(PSL psl: pslList) {
-                        total+=psl.getNumberOfEntriesThatAppearMoreThanOnce();
-                    }
-                    double avg = total/(pslList.size()+0.0);
-                    System.out.println("AVG: "+avg +" (total: "+total+")");
-
-                    /**
-                     * check that no entry is present more than once in every psl version
-                     */
-                    printNewHeader("check that no entry is present more than once in every psl version", true);
-                    for(PSL psl: pslList) {
-                        newItemProcessed(pslList.size());
-                        final HashMap<String, Boolean> map = new HashMap<>();
-                        for(String entry: psl.getPslEntries()) {
-                            Boolean aBoolean = map.get(entry);
-                            if(aBoolean == null) {
-                                map.put(entry, true);
-                            } else {
-                                //this entry doe not appear for the first time in this psl
-                                System.err.println(entry+" appears more than once in psl "+psl.getCommitHash()+" ("+psl.getCommitDate().getTime()+")");
-                                return;
-                            }
-                        }
-                    }
-                    //if reached this point no psl version contains an entry twice.
-
-                    //moved here because otherwise exceptions that have no associated wildcard might appear in
-                    // entries_without_the_ones_shared_by_all_versions or  entries_that_all_versions_have_in_common
-                    // which could cause the YesNoGame to check for such an exception which cannot be done.
-
-                    /**
-                     * create exception-wildcard-mapping; remove all exception without associated wildcard
-                     */
-                    printNewHeader("create exception-wildcard-mapping", true);
-                    final List<Map<String, String>> exceptionToWildcardMappingList = new ArrayList<>();
-                    final List<List<String>> wildcardsList = new ArrayList<>();
-                    {
-                        for (int i = 0; i<pslList.size(); i++) {
-                            newItemProcessed(pslList.size());
-                            final List<String> wildcards = new ArrayList<>();
-                            final List<String> exceptions = new ArrayList<>();
-
-                            final HashSet<String> exceptionsWithoutAssociatedWildcard = new HashSet<>();
-
-                            final Map<String, String> exceptionWildcardMapping = new HashMap<>();
-
-                            PSL psl = pslList.get(i);
-                            //find all wildcards and exceptions in this psl
-                            for(String entry: psl.getPslEntries()) {
-                                if(entry.startsWith("!")) {
-                                    exceptions.add(entry);
-                                } else if (entry.contains("*")) {
-                                    wildcards.add(entry);
-                                }
-                            }
-                            wildcardsList.add(wildcards);
-                            //System.out.println("Exceptions: "+exceptions.size()+" Wildcards: "+wildcards.size());
-                            //find the wildcard for every exception
-                            //TODO: is it unique? is something like this possible: !a.b.foo.bar, *.b.foo.bar, *.*.foo.bar??
-                            for(String exception: exceptions) {
-                                boolean found = false;
-                                for(String wildcard: wildcards) {
-                                    if(isExceptionFromWildcard(exception, wildcard)) {
-                                        //found!
-                                        exceptionWildcardMapping.put(exception, wildcard);
-                                        found = true;
-                                        break;
-                                    }
-                                }
-                                if(!found) {
-                                    exceptionsWithoutAssociatedWildcard.add(exception);
-                                    System.err.println("no wildcard found for: "+ exception +" ("+psl.getCommitHash()+")");
-                                }
-                            }
-                            if(exceptionsWithoutAssociatedWildcard.size() > 0) {
-                                //remove all exceptions that have no associated wildcards
-                                psl.getPslEntries().removeIf(entry -> exceptionsWithoutAssociatedWildcard.contains(entry));
-                                System.err.println(exceptionsWithoutAssociatedWildcard.size()+" exceptions without associated wildcard removed.");
-                            }
-                            exceptionToWildcardMappingList.add(exceptionWildcardMapping);
-                        }
-                    }
+                return sources;
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.err.println("cannot read: " +PSL_ARCHIVE);
+                return null;
+            }
+        }
+        final File pslfolder = file(PSL_FOLDER);
+        if(!pslfolder.exists()) {
+            System.err.println(PSL_FOLDER + " does not exist");
+            return null;
+        }
+        if(!pslfolder.canRead()) {
+            System.err.println("cannot read: " +PSL_FOLDER);
+            return null;
+        }
+        final File[] files = pslfolder.listFiles();
+        final List<PSLSource> sources = new ArrayList<>();
+        printNewHeader("found: " + files.length+" files", false);
+        boolean allReadable = true;
+        for(File f: files ) {
+            if(!f.canRead()) {
+                System.err.println("cannot read file: " +f.getName());
+                allReadable = false;
+                continue;
+            }
+            //the file must be named according to the pattern <COMMIT TIMESTAMP>_<COMMIT_HASH>
+            final String[] split = f.getName().split("_");
+            try {
+                if(split.length == 2) {
+                    sources.add(new PSLSource(Long.parseLong(split[0]), split[1], f, null, null));
+                    continue;
+                }
+            } catch (NumberFormatException e) {
+                e.printStackTrace();
+            }
+            System.err.println("invalid filename: " + f.getName());
+        }
+        //all must be read to continue
+        return allReadable ? sources : null;
+    }
 
-                    /**
-                     * detect all entries that every psl versions share
-                     */
-                    printNewHeader("detect all entries that every psl versions share", true);
-                    final List<List<String>> entries_without_the_ones_shared_by_all_versions = new ArrayList<>(pslList.size());
-                    final Set<String> entries_that_all_versions_have_in_common = new HashSet<>();
-                   // final HashSet<String> entriesAllVersionsHaveInCommon = new HashSet<>();
-                    {
-                        final Map<String, Integer> allEntriesCount = new HashMap<String, Integer>();
-                        printNewHeader("\tcount how often an entry occurs", false);
-                        for (PSL psl : pslList) {
-                            newItemProcessed(pslList.size());
-                            for (String entry : psl.getPslEntries()) {
-                                Integer count = allEntriesCount.get(entry);
-                                if (count == null) {
-                                    //this entry is seen for the first time
-                                    count = 1;
-                                } else {
-                                    //this entry has already been seen
-                                    count += 1;
-                                }
-                                allEntriesCount.put(entry, count);
-                            }
-                        }
-                        //now allEntriesCount contains the number of psl versions a certain entry appears in
-
-                        printNewHeader("\tdetermine all entries that are part of every version", true);
-                        for (String entry : allEntriesCount.keySet()) {
-                            if (allEntriesCount.get(entry) == pslList.size()) {
-                                entries_that_all_versions_have_in_common.add(entry);
-                            }
-                        }
-                        //remove all entries that are part of every version of the psl from all versions of the psl
-
-                        printNewHeader("\tbuild new list", true);
-                        for (PSL psl : pslList) {
-                            newItemProcessed(pslList.size());
-                            entries_without_the_ones_shared_by_all_versions
-                                    .add(
-                                            psl.getPslEntries()
-                                                    .stream()
-                                                    .filter(s -> !entries_that_all_versions_have_in_common.contains(s))
-                                                    .collect(Collectors.toList())
-                                    );
-                        }
-                    }
+    /**
+     * reads and analyzes all psl versions and writes the prepared psl versions and the manifest
+     * @param sources all psl versions (see listSources)
+     * @param outputFile the file to write the prepared psl versions to
+     */
+    private static void prepareAll(List<PSLSource> sources, File outputFile) {
+        final RuleDictionary dictionary = new RuleDictionary();
+        printNewHeader("read all", true);
+        final List<PSL> pslList = readIntoPSLs(sources, dictionary);
+        //here the list should be ordered from first to latest
 
-                    /**
-                     * determine equal psls
-                     */
-                    printNewHeader("determine equal psls", true);
-                    final List<List<String>> equalList = new ArrayList<>(pslList.size());
-                    {
-                        //populate list for the following code
-                        for (PSL psl : pslList) {
-                            equalList.add(new ArrayList<>());
-                        }
-
-                        for (int i = 0; i < pslList.size(); i++) {
-                            newItemProcessed(pslList.size());
-                            final PSL pslI = pslList.get(i);
-
-                            for (int j = i + 1; j < pslList.size(); j++) {
-                                final PSL pslJ = pslList.get(j);
-                                boolean equal = true;
-
-                                if (pslI.getPslEntries().size() == pslJ.getPslEntries().size()) {
-                                    //same size; check every entry
-                                    for (String entryI : pslI.getPslEntries()) {
-                                        if (!pslJ.containsEntry(entryI)) {
-                                            //does not contain -> not equal
-                                            equal = false;
-                                            break;
-                                        }
-                                    }
-                                    if (equal) {
-                                        //pslI is euqal pslJ
-                                        //add pslJ to euqallist of pslI
-                                        equalList.get(i).add(pslJ.getCommitHash());
-                                        //add pslI to euqallist of pslJ
-                                        equalList.get(j).add(pslI.getCommitHash());
-                                    }
-                                } else {
-                                    //cannot be equal
-                                }
-                            }
-                        }
-                    }
+        /**
+         * count how many items are present more than once on average per PSL version
+         */
+        int total = 0;
+        for(PSL psl: pslList) {
+            total+=psl.getNumberOfEntriesThatAppearMoreThanOnce();
+        }
+        double avg = total/(pslList.size()+0.0);
+        System.out.println("AVG: "+avg +" (total: "+total+")");
 
-                    /**
-                     * sort out tld entries
-                     */
-                    final List<Set<String>> tldEntriesList = new ArrayList<>(pslList.size());
-                    final List<List<String>> pslEntriesWithoutTLDs = new ArrayList<>(pslList.size());
-                    printNewHeader("sort out tld entries", true);
-                    {
-                        for(PSL psl: pslList) {
-                            newItemProcessed(pslList.size());
-                            final Set<String> tldEntriesInThisList = new HashSet<>();
-                            for(String s: psl.getPslEntries()){
-                                final String entryCopy = s;
-                                if(s.startsWith(".")) {
-                                    s = s.substring(1);
-                                }
-                                if(s.endsWith(".")) {
-                                    s = s.substring(0,s.length()-1);
-                                }
-                                if(!s.contains(".")) {
-                                    tldEntriesInThisList.add(entryCopy);
-                                }
-                            }
-                            pslEntriesWithoutTLDs.add(
-                                    psl.getPslEntries()
-                                            .stream()
-                                            .filter(s -> !tldEntriesInThisList.contains(s))
-                                            .collect(Collectors.toList()));
-                            //add to list
-                            tldEntriesList.add(tldEntriesInThisList);
-                        }
+        //no psl version contains an entry twice: duplicates are skipped while reading (and counted above) and the
+        //entries of a version are a bitset of rule ids.
 
-                    }
+        //moved here because otherwise exceptions that have no associated wildcard might appear in
+        // entries_without_the_ones_shared_by_all_versions or  entries_that_all_versions_have_in_common
+        // which could cause the YesNoGame to check for such an exception which cannot be done.
 
-                    /**
-                     * determine equals without tlds
-                     */
-                    final List<List<String>> equalWithoutTLDList = new ArrayList<>(pslList.size());
-                    printNewHeader("determine equal psls without tld entries", true);
-                    {
-                        //populate list for the following code
-                        for (PSL psl : pslList) {
-                            equalWithoutTLDList.add(new ArrayList<>());
-                        }
-
-                        for (int i = 0; i < pslList.size(); i++) {
-                            newItemProcessed(pslList.size());
-                            final PSL pslI = pslList.get(i);
-                            final List<String> pslIEntriesWithoutTLDs = pslEntriesWithoutTLDs.get(i);
-
-                            for (int j = i + 1; j < pslList.size(); j++) {
-                                final PSL pslJ = pslList.get(j);
-                                final List<String> pslJEntriesWithoutTLDs = pslEntriesWithoutTLDs.get(j);
-                                boolean equal = true;
-
-                                if (pslIEntriesWithoutTLDs.size() ==pslJEntriesWithoutTLDs.size()) {
-                                    final Set PSLJEntriesSetWithoutTLDs = new HashSet<>(pslJEntriesWithoutTLDs);
-                                    //same size; check every entry
-                                    for (String entryI :pslIEntriesWithoutTLDs) {
-                                        if (!PSLJEntriesSetWithoutTLDs.contains(entryI)) {
-                                            //does not contain -> not equal
-                                            equal = false;
-                                            break;
-                                        }
-                                    }
-                                    if (equal) {
-                                        //pslI is euqal pslJ
-                                        //add pslJ to equalWithoutTLDList of pslI
-                                        equalWithoutTLDList.get(i).add(pslJ.getCommitHash());
-                                        //add pslI to equalWithoutTLDList of pslJ
-                                        equalWithoutTLDList.get(j).add(pslI.getCommitHash());
-                                    }
-                                } else {
-                                    //cannot be equal
-                                }
-                            }
-                        }
-                    }
+        /**
+         * create exception-wildcard-mapping; remove all exception without associated wildcard
+         */
+        printNewHeader("create exception-wildcard-mapping", true);
+        final List<Map<String, String>> exceptionToWildcardMappingList = new ArrayList<>();
+        final List<int[]> wildcardsList = new ArrayList<>();
+        {
+            //contains the wildcards of all versions processed so far
+            final WildcardTrie wildcardTrie = new WildcardTrie();
+            for (int i = 0; i<pslList.size(); i++) {
+                newItemProcessed(pslList.size());
+                wildcardsList.add(determineWildcards(pslList.get(i)));
+                exceptionToWildcardMappingList.add(createExceptionWildcardMapping(pslList.get(i), wildcardsList.get(i), wildcardTrie));
+            }
+        }
 
-                    /**
-                     * relative changes without tlds
-                     */
-                    printNewHeader("determine relative changes without tlds", true);
-                    final List<List<String>> relativeAdded = new ArrayList<>(pslList.size());
-                    final List<List<String>> relativeRemoved = new ArrayList<>(pslList.size());
-                    {
-                        for (int i = pslList.size() - 1; i > 0; i--) {
-                            newItemProcessed(pslList.size());
-                            final PSL latest = pslList.get(i);
-                            final Set<String> latestTLDs = tldEntriesList.get(i);
-                            final PSL previous = pslList.get(i - 1);
-                            final Set<String> previousTDLs = tldEntriesList.get(i-1);
-
-                           // System.out.println("processing: " + SDF.format(latest.getCommitDate()));
-                            //determine entries that are present in previous but are missing in latest (=removed entries)
-                            final List<String> removedInLatest = previous.getPslEntries().stream()
-                                    .filter(s -> !previousTDLs.contains(s) && !latest.containsEntry(s)) //no tld and not present in latest
-                                    .collect(Collectors.toList());
-                            //only entries that are new -> not in the previous list
-                            final List<String> addedInLast = latest.getPslEntries().stream()
-                                    .filter(s -> !latestTLDs.contains(s) && !previous.containsEntry(s)) //no tld and not present in previous
-                                    .collect(Collectors.toList());
-                            relativeAdded.add(addedInLast);
-                            relativeRemoved.add(removedInLatest);
-                        }
-                        //add entries of first psl because this one is not part of the previous loop
-                        if (pslList.size() > 0) {
-                            newItemProcessed(pslList.size());
-                            final PSL psl = pslList.get(0);
-                            final Set pslTLDs = tldEntriesList.get(0);
-                            //consider only the entries that not all have in common as added in the first version
-                            //and that are not tlds
-                            relativeAdded.add(psl.getPslEntries().stream().filter(s -> !pslTLDs.contains(s) && !entries_that_all_versions_have_in_common.contains(s)).collect(Collectors.toList()));
-                            //no removed in first psl
-                            relativeRemoved.add(new ArrayList<>());
-                        }
-                        //relativeAdded and relativeRemoved are ordered from latest to first.
-                        Collections.reverse(relativeAdded);
-                        Collections.reverse(relativeRemoved);
-                        //now they should be ordered from first to latest psl
-                    }
+        /**
+         * detect all entries that every psl versions share
+         */
+        printNewHeader("detect all entries that every psl versions share", true);
+        final BitSet entries_that_all_versions_have_in_common;
+        //indexed by rule id
+        final int[] allEntriesCount = new int[dictionary.size()];
+        {
+            printNewHeader("\tcount how often an entry occurs", false);
+            for (PSL psl : pslList) {
+                newItemProcessed(pslList.size());
+                countEntries(psl.getRuleIds(), allEntriesCount);
+            }
+            //now allEntriesCount contains the number of psl versions a certain entry appears in
+
+            printNewHeader("\tdetermine all entries that are part of every version", true);
+            entries_that_all_versions_have_in_common = determineEntriesOfEveryVersion(allEntriesCount, pslList.size());
+            //the entries without the ones that are part of every version are derived from the bitsets by PreparedPSL
+        }
+
+        /**
+         * sort out tld entries
+         */
+        final List<BitSet> tldEntriesList = new ArrayList<>(pslList.size());
+        printNewHeader("sort out tld entries", true);
+        {
+            for(PSL psl: pslList) {
+                newItemProcessed(pslList.size());
+                //add to list
+                tldEntriesList.add(determineTLDEntries(psl.getRuleIds(), dictionary));
+            }
+
+        }
+
+        final List<ComparableVersion> versions = new ArrayList<>(pslList.size());
+        final Map<String, ComparableVersion> versionByHash = new HashMap<>();
+        for(int i = 0; i<pslList.size(); i++) {
+            final PSL psl = pslList.get(i);
+            final ComparableVersion version = new ComparableVersion(psl.getCommitHash(), psl.getRuleIds(),
+                    EqualityGroups.fingerprint(psl.getPslEntries()), tldEntriesList.get(i), dictionary);
+            versions.add(version);
+            versionByHash.put(version.commitHash, version);
+        }
+
+        /**
+         * determine equal psls
+         */
+        printNewHeader("determine equal psls", true);
+        final EqualityGroups equalityGroups = new EqualityGroups();
+        {
+            for (ComparableVersion version: versions) {
+                newItemProcessed(pslList.size());
+                //only versions with the same fingerprint are compared entry by entry
+                equalityGroups.add(version.commitHash, version.fingerprint,
+                        hash -> versionByHash.get(hash).hasEntries(version));
+            }
+        }
+
+        /**
+         * determine equals without tlds
+         */
+        printNewHeader("determine equal psls without tld entries", true);
+        final EqualityGroups equalityGroupsWithoutTLDs = new EqualityGroups();
+        {
+            for (ComparableVersion version: versions) {
+                newItemProcessed(pslList.size());
+                equalityGroupsWithoutTLDs.add(version.commitHash, version.getFingerprintWithoutTLDs(),
+                        hash -> versionByHash.get(hash).hasEntriesWithoutTLDs(version));
+            }
+        }
+        final Map<String, List<String>> equalLists = equalityGroups.toEqualLists();
+        final Map<String, List<String>> equalWithoutTLDLists = equalityGroupsWithoutTLDs.toEqualLists();
+
+        /**
+         * relative changes without tlds
+         */
+        printNewHeader("determine relative changes without tlds", true);
+        final List<int[]> relativeAdded = new ArrayList<>(pslList.size());
+        final List<int[]> relativeRemoved = new ArrayList<>(pslList.size());
+        {
+            for (int i = pslList.size() - 1; i > 0; i--) {
+                newItemProcessed(pslList.size());
+                final PSL latest = pslList.get(i);
+                final PSL previous = pslList.get(i - 1);
+
+               // System.out.println("processing: " + SDF.format(latest.getCommitDate()));
+                //determine entries that are present in previous but are missing in latest (=removed entries)
+                final int[] removedInLatest = entriesMissingIn(previous.getRuleIds(), tldEntriesList.get(i - 1), latest.getRuleIds());
+                //only entries that are new -> not in the previous list
+                final int[] addedInLast = entriesMissingIn(latest.getRuleIds(), tldEntriesList.get(i), previous.getRuleIds());
+                relativeAdded.add(addedInLast);
+                relativeRemoved.add(removedInLatest);
+            }
+            //add entries of first psl because this one is not part of the previous loop
+            if (pslList.size() > 0) {
+                newItemProcessed(pslList.size());
+                final PSL psl = pslList.get(0);
+                //consider only the entries that not all have in common as added in the first version
+                //and that are not tlds
+                relativeAdded.add(entriesMissingIn(psl.getRuleIds(), tldEntriesList.get(0), entries_that_all_versions_have_in_common));
+                //no removed in first psl
+                relativeRemoved.add(RuleIds.EMPTY);
+            }
+            //relativeAdded and relativeRemoved are ordered from latest to first.
+            Collections.reverse(relativeAdded);
+            Collections.reverse(relativeRemoved);
+            //now they should be ordered from first to latest psl
+        }
+
+        /**
+         * create the prepred model.PSL and write it to the output file
+         */
+        printNewHeader("build list and write to output file", true);
+        try(PreparedPSLWriter writer = new PreparedPSLWriter(outputFile, file(SNAPSHOT_FILE))) {
+            try {
+                for (int i = 0; i < pslList.size(); i++) {
+                    newItemProcessed(pslList.size());
+                    final PSL psl = pslList.get(i);
+                    writer.write(new PreparedPSL(
+                            psl.getCommitDate().getTime(),
+                            psl.getCommitHash(),
+                            dictionary,
+                            entries_that_all_versions_have_in_common,
+                            relativeAdded.get(i),
+                            relativeRemoved.get(i),
+                            psl.getRuleIds(),
+                            equalLists.get(psl.getCommitHash()),
+                            tldEntriesList.get(i),
+                            equalWithoutTLDLists.get(psl.getCommitHash()),
+                            exceptionToWildcardMappingList.get(i),
+                            wildcardsList.get(i)));
+                }
+            } catch (RuntimeException e) {
+                //keep the previous output file instead of the versions written so far
+                writer.abort();
+                throw e;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("error while writing output file");
+            return;
+        }
+
+        writeManifest(new PrepareManifest(
+                pslList.stream().map(PSLFileReader::buildFilename).collect(Collectors.toList()),
+                toEntryOccurrenceCounts(allEntriesCount, dictionary),
+                equalityGroups.getGroups(),
+                equalityGroupsWithoutTLDs.getGroups()));
+    }
+
+    /**
+     * Appends the psl versions that are not listed in the manifest of a previous run to the prepared psl versions of
+     * that run. Only the data that is affected by the new versions is recomputed:
+     * - the entries all versions have in common (based on the entry occurrence counts)
+     * - the entries that are no longer shared by all versions are added to the entries (and the added entries of the
+     *   first version) of the already prepared versions
+     * - added/removed entries of the new versions
+     * - the equal lists of the members of the equality groups the new versions join
+     * @param sources all psl versions (see listSources)
+     * @param outputFile the file that contains the prepared psl versions of the previous run
+     * @return true if the versions were processed (or there are no new versions), false if all versions must be
+     * processed again (no manifest, removed files, new versions that are older than the last processed version...)
+     */
+    private static boolean prepareIncrementally(List<PSLSource> sources, File outputFile) {
+        printNewHeader("read manifest", false);
+        final PrepareManifest manifest = PrepareManifest.read(file(MANIFEST_FILE));
+        if(manifest == null) {
+            System.out.println("no manifest found; process all versions");
+            return false;
+        }
+        final Set<String> processedFiles = new HashSet<>(manifest.getProcessedFiles());
+        final List<PSLSource> newSources = new ArrayList<>();
+        for(PSLSource source: sources) {
+            if(!processedFiles.remove(source.getName())) {
+                newSources.add(source);
+            }
+        }
+        if(!processedFiles.isEmpty()) {
+            System.out.println(processedFiles.size()+" processed files do not exist anymore; process all versions");
+            return false;
+        }
+
+        printNewHeader("read prepared psl versions", true);
+        //the snapshot is much faster to load than the json file
+        List<PreparedPSL> preparedPSLs = PreparedPSLReader.loadPreparedPSLSnapshot(file(SNAPSHOT_FILE).getPath(), new RuleDictionary());
+        if(!matchesManifest(preparedPSLs, manifest)) {
+            preparedPSLs = PreparedPSLReader.loadPreparedPSLs(outputFile.getPath(), new RuleDictionary());
+        }
+        if(!matchesManifest(preparedPSLs, manifest)) {
+            System.out.println("prepared psl versions do not match the manifest; process all versions");
+            return false;
+        }
+        final RuleDictionary dictionary = preparedPSLs.get(0).getDictionary();
+
+        printNewHeader("read new", true);
+        final List<PSL> newPSLs = readIntoPSLs(newSources, dictionary);
+        if(newPSLs.isEmpty()) {
+            System.out.println("no new psl versions");
+            return true;
+        }
+        final PreparedPSL lastPrepared = preparedPSLs.get(preparedPSLs.size() - 1);
+        if(newPSLs.get(0).getCommitDate().getTime() <= lastPrepared.getCommitTimestamp()) {
+            System.out.println("new psl versions are older than the last processed version; process all versions");
+            return false;
+        }
+        System.out.println(newPSLs.size()+" new versions");
+
+        printNewHeader("analyze new versions", false);
+        manifest.getEntryOccurrenceCounts().keySet().forEach(dictionary::getOrAddId);
+        //indexed by rule id
+        final int[] allEntriesCount = new int[dictionary.size()];
+        manifest.getEntryOccurrenceCounts().forEach((entry, count) -> allEntriesCount[dictionary.getId(entry)] = count);
+        final List<Map<String, String>> exceptionToWildcardMappingList = new ArrayList<>(newPSLs.size());
+        final List<int[]> wildcardsList = new ArrayList<>(newPSLs.size());
+        final List<BitSet> tldEntriesList = new ArrayList<>(newPSLs.size());
+        final WildcardTrie wildcardTrie = new WildcardTrie();
+        for(PSL psl: newPSLs) {
+            newItemProcessed(newPSLs.size());
+            final int[] wildcards = determineWildcards(psl);
+            wildcardsList.add(wildcards);
+            exceptionToWildcardMappingList.add(createExceptionWildcardMapping(psl, wildcards, wildcardTrie));
+            tldEntriesList.add(determineTLDEntries(psl.getRuleIds(), dictionary));
+            countEntries(psl.getRuleIds(), allEntriesCount);
+        }
+
+        printNewHeader("determine entries that all versions have in common", true);
+        final BitSet previousEntriesInCommon = lastPrepared.getEntryIdsSharedByAll();
+        final BitSet entries_that_all_versions_have_in_common =
+                determineEntriesOfEveryVersion(allEntriesCount, preparedPSLs.size() + newPSLs.size());
+        //entries that were part of every processed version but are missing in at least one new version
+        final BitSet noLongerInCommon = RuleIds.difference(previousEntriesInCommon, entries_that_all_versions_have_in_common);
 
-                    /**
-                     * create the prepred model.PSL; build JSONArray
-                     */
-                    printNewHeader("build list", true);
-                    final JSONArray output = new JSONArray(pslList.size());
-                    for(int i = 0; i<pslList.size(); i++) {
-                        newItemProcessed(pslList.size());
-                        final PSL psl = pslList.get(i);
-                        final PreparedPSL preparedPSL = new PreparedPSL(
-                                psl.getCommitDate().getTime(),
-                                psl.getCommitHash(),
-                                entries_that_all_versions_have_in_common,
-                                relativeAdded.get(i),
-                                relativeRemoved.get(i),
-                                entries_without_the_ones_shared_by_all_versions.get(i),
-                                equalList.get(i),
-                                tldEntriesList.get(i),
-                                equalWithoutTLDList.get(i),
-                                exceptionToWildcardMappingList.get(i),
-                                wildcardsList.get(i));
-                        output.put(preparedPSL.toJsonObject());
+        printNewHeader("determine equal psls", true);
+        final List<ComparableVersion> allVersions = new ArrayList<>(preparedPSLs.size() + newPSLs.size());
+        for (PreparedPSL preparedPSL : preparedPSLs) {
+            final BitSet ruleIds = preparedPSL.getEntryIds();
+            allVersions.add(new ComparableVersion(preparedPSL.getCommitHash(), ruleIds,
+                    EqualityGroups.fingerprint(dictionary.toRuleList(RuleIds.fromBitSet(ruleIds))),
+                    preparedPSL.getTldEntryIds(), dictionary));
+        }
+        for(int i = 0; i<newPSLs.size(); i++) {
+            final PSL psl = newPSLs.get(i);
+            allVersions.add(new ComparableVersion(psl.getCommitHash(), psl.getRuleIds(),
+                    EqualityGroups.fingerprint(psl.getPslEntries()), tldEntriesList.get(i), dictionary));
+        }
+        final EqualityGroups equalityGroups = new EqualityGroups();
+        final EqualityGroups equalityGroupsWithoutTLDs = new EqualityGroups();
+        {
+            final Map<String, ComparableVersion> versionByHash = new HashMap<>();
+            allVersions.forEach(version -> versionByHash.put(version.commitHash, version));
+            for(List<String> group: manifest.getEqualityGroups()) {
+                equalityGroups.addGroup(group, versionByHash.get(group.get(0)).fingerprint);
+            }
+            for(List<String> group: manifest.getEqualityGroupsWithoutTLDs()) {
+                equalityGroupsWithoutTLDs.addGroup(group, versionByHash.get(group.get(0)).getFingerprintWithoutTLDs());
+            }
+            for (int i = 0; i < newPSLs.size(); i++) {
+                newItemProcessed(newPSLs.size());
+                final ComparableVersion version = allVersions.get(preparedPSLs.size() + i);
+                equalityGroups.add(version.commitHash, version.fingerprint,
+                        hash -> versionByHash.get(hash).hasEntries(version));
+                equalityGroupsWithoutTLDs.add(version.commitHash, version.getFingerprintWithoutTLDs(),
+                        hash -> versionByHash.get(hash).hasEntriesWithoutTLDs(version));
+            }
+        }
+        final Map<String, List<String>> equalLists = equalityGroups.toEqualLists();
+        final Map<String, List<String>> equalWithoutTLDLists = equalityGroupsWithoutTLDs.toEqualLists();
+
+        printNewHeader("build list and write to output file", true);
+        try(PreparedPSLWriter writer = new PreparedPSLWriter(outputFile, file(SNAPSHOT_FILE))) {
+            try {
+                for(int i = 0; i<preparedPSLs.size(); i++) {
+                    newItemProcessed(preparedPSLs.size());
+                    final PreparedPSL preparedPSL = preparedPSLs.get(i);
+                    int[] added = preparedPSL.getAddedEntryIds();
+                    if(i == 0) {
+                        //the added entries of the first version are all its entries that are neither shared by all nor a tld
+                        added = RuleIds.union(added, RuleIds.fromBitSet(RuleIds.difference(noLongerInCommon, preparedPSL.getTldEntryIds())));
                     }
+                    writer.write(new PreparedPSL(
+                            preparedPSL.getCommitTimestamp(),
+                            preparedPSL.getCommitHash(),
+                            dictionary,
+                            entries_that_all_versions_have_in_common,
+                            added,
+                            preparedPSL.getRemovedEntryIds(),
+                            preparedPSL.getEntryIds(),
+                            equalLists.get(preparedPSL.getCommitHash()),
+                            preparedPSL.getTldEntryIds(),
+                            equalWithoutTLDLists.get(preparedPSL.getCommitHash()),
+                            preparedPSL.getExceptionToWildcardMapping(),
+                            preparedPSL.getWildcardIds()));
+                }
+                for(int i = 0; i<newPSLs.size(); i++) {
+                    final PSL psl = newPSLs.get(i);
+                    final ComparableVersion previous = allVersions.get(preparedPSLs.size() + i - 1);
+                    writer.write(new PreparedPSL(
+                            psl.getCommitDate().getTime(),
+                            psl.getCommitHash(),
+                            dictionary,
+                            entries_that_all_versions_have_in_common,
+                            entriesMissingIn(psl.getRuleIds(), tldEntriesList.get(i), previous.ruleIds),
+                            entriesMissingIn(previous.ruleIds, previous.tldEntryIds, psl.getRuleIds()),
+                            psl.getRuleIds(),
+                            equalLists.get(psl.getCommitHash()),
+                            tldEntriesList.get(i),
+                            equalWithoutTLDLists.get(psl.getCommitHash()),
+                            exceptionToWildcardMappingList.get(i),
+                            wildcardsList.get(i)));
+                }
+            } catch (RuntimeException e) {
+                //keep the previous output file instead of the versions written so far
+                writer.abort();
+                throw e;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("error while writing output file");
+            return true;
+        }
+
+        final List<String> processed = new ArrayList<>(manifest.getProcessedFiles());
+        newPSLs.forEach(psl -> processed.add(buildFilename(psl)));
+        writeManifest(new PrepareManifest(processed, toEntryOccurrenceCounts(allEntriesCount, dictionary),
+                equalityGroups.getGroups(), equalityGroupsWithoutTLDs.getGroups()));
+        return true;
+    }
+
+    /**
+     * Same result as prepareAll but only a few versions are kept in memory at a time. The versions are read twice,
+     * ordered by commit date:
+     * - pass 1 determines the entry occurrence counts (and with them the entries all versions have in common), the
+     *   exception-wildcard-mappings and the groups of equal versions
+     * - pass 2 builds every prepared version and writes it to the output file as soon as it is built; only the previous
+     *   version is kept to determine the added/removed entries
+     * @param sources all psl versions (see listSources)
+     * @param outputFile the file to write the prepared psl versions to
+     */
+    private static void prepareWithBoundedMemory(List<PSLSource> sources, File outputFile) {
+        final RuleDictionary dictionary = new RuleDictionary();
+        final List<PSLSource> files = sortByCommitDate(sources);
+
+        /**
+         * pass 1
+         */
+        printNewHeader("pass 1: analyze all versions", false);
+        final List<String> processedFiles = new ArrayList<>(files.size());
+        final Map<String, PSLSource> sourceByCommitHash = new HashMap<>();
+        //the mappings and wildcards are small; they are kept so that pass 2 does not have to search them again
+        final Map<String, Map<String, String>> exceptionToWildcardMappings = new HashMap<>();
+        final Map<String, int[]> wildcards = new HashMap<>();
+        //indexed by rule id; grows with the dictionary
+        int[] allEntriesCount = new int[0];
+        final EqualityGroups equalityGroups = new EqualityGroups();
+        final EqualityGroups equalityGroupsWithoutTLDs = new EqualityGroups();
+        int total = 0;
+        try(PSLStream stream = new PSLStream(files, dictionary)) {
+            final WildcardTrie wildcardTrie = new WildcardTrie();
+            ComparableVersion previous = null;
+            PSL psl;
+            while((psl = stream.next()) != null) {
+                newItemProcessed(files.size());
+                total += psl.getNumberOfEntriesThatAppearMoreThanOnce();
+                processedFiles.add(buildFilename(psl));
+                sourceByCommitHash.put(psl.getCommitHash(), stream.getCurrentSource());
+
+                final int[] wildcardIds = determineWildcards(psl);
+                wildcards.put(psl.getCommitHash(), wildcardIds);
+                exceptionToWildcardMappings.put(psl.getCommitHash(), createExceptionWildcardMapping(psl, wildcardIds, wildcardTrie));
 
-                    /**
-                     * write to file
-                     */
-                    printNewHeader("write to output file", true);
-                    try {
-                        FileWriter fileWriter = new FileWriter(outputFile,false);
-                        fileWriter.write(output.toString());
-                        fileWriter.flush();
-                        fileWriter.close();
-                    } catch (IOException e) {
-                        e.printStackTrace();
+                if(allEntriesCount.length < dictionary.size()) {
+                    allEntriesCount = Arrays.copyOf(allEntriesCount, dictionary.size());
+                }
+                countEntries(psl.getRuleIds(), allEntriesCount);
+
+                final ComparableVersion version = new ComparableVersion(psl.getCommitHash(), psl.getRuleIds(),
+                        EqualityGroups.fingerprint(psl.getPslEntries()), determineTLDEntries(psl.getRuleIds(), dictionary),
+                        dictionary);
+                //usually a version is equal to the previous one; all other versions have to be read again (once for both
+                //groups; the versions read again are dropped after this version)
+                final ComparableVersion previousVersion = previous;
+                final Map<String, ComparableVersion> readAgain = new HashMap<>();
+                final Function<String, ComparableVersion> versionByHash = hash -> previousVersion != null && previousVersion.commitHash.equals(hash)
+                        ? previousVersion
+                        : readAgain.computeIfAbsent(hash, h -> readComparableVersion(sourceByCommitHash.get(h), dictionary, exceptionToWildcardMappings.get(h)));
+                equalityGroups.add(version.commitHash, version.fingerprint,
+                        hash -> versionByHash.apply(hash).hasEntries(version));
+                equalityGroupsWithoutTLDs.add(version.commitHash, version.getFingerprintWithoutTLDs(),
+                        hash -> versionByHash.apply(hash).hasEntriesWithoutTLDs(version));
+                previous = version;
+            }
+        }
+        System.out.println();
+        System.out.println("AVG: "+total/(processedFiles.size()+0.0) +" (total: "+total+")");
+        final BitSet entries_that_all_versions_have_in_common = determineEntriesOfEveryVersion(allEntriesCount, processedFiles.size());
+        final Map<String, List<String>> equalLists = equalityGroups.toEqualLists();
+        final Map<String, List<String>> equalWithoutTLDLists = equalityGroupsWithoutTLDs.toEqualLists();
+
+        /**
+         * pass 2
+         */
+        printNewHeader("pass 2: build list and write to output file", true);
+        try(PSLStream stream = new PSLStream(files, dictionary);
+            PreparedPSLWriter writer = new PreparedPSLWriter(outputFile, file(SNAPSHOT_FILE))) {
+            try {
+                PSL previous = null;
+                BitSet previousTLDEntries = null;
+                PSL psl;
+                while((psl = stream.next()) != null) {
+                    newItemProcessed(files.size());
+                    final Map<String, String> exceptionToWildcardMapping = exceptionToWildcardMappings.get(psl.getCommitHash());
+                    removeExceptionsWithoutWildcard(psl, exceptionToWildcardMapping);
+                    final BitSet tldEntries = determineTLDEntries(psl.getRuleIds(), dictionary);
+                    final int[] added;
+                    final int[] removed;
+                    if(previous == null) {
+                        //consider only the entries that not all have in common as added in the first version
+                        //and that are not tlds
+                        added = entriesMissingIn(psl.getRuleIds(), tldEntries, entries_that_all_versions_have_in_common);
+                        //no removed in first psl
+                        removed = RuleIds.EMPTY;
+                    } else {
+                        added = entriesMissingIn(psl.getRuleIds(), tldEntries, previous.getRuleIds());
+                        removed = entriesMissingIn(previous.getRuleIds(), previousTLDEntries, psl.getRuleIds());
                     }
+                    writer.write(new PreparedPSL(
+                            psl.getCommitDate().getTime(),
+                            psl.getCommitHash(),
+                            dictionary,
+                            entries_that_all_versions_have_in_common,
+                            added,
+                            removed,
+                            psl.getRuleIds(),
+                            equalLists.get(psl.getCommitHash()),
+                            tldEntries,
+                            equalWithoutTLDLists.get(psl.getCommitHash()),
+                            exceptionToWildcardMapping,
+                            wildcards.get(psl.getCommitHash())));
+                    previous = psl;
+                    previousTLDEntries = tldEntries;
                 }
-            } else{
-                System.err.println("cannot read: " +PSL_FOLDER);
+            } catch (RuntimeException e) {
+                //keep the previous output file instead of the versions written so far
+                writer.abort();
+                throw e;
             }
-        } else {
-            System.err.println(PSL_FOLDER + " does not exist");
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("error while writing output file");
+            return;
         }
+
+        writeManifest(new PrepareManifest(processedFiles, toEntryOccurrenceCounts(allEntriesCount, dictionary),
+                equalityGroups.getGroups(), equalityGroupsWithoutTLDs.getGroups()));
     }
 
+    /**
+     * reads a version again (in bounded memory mode) to compare it to another version. The version is read in the
+     * calling thread (or taken from the ParsedPSLCache); it was already added to the cache when it was read first.
+     * @param exceptionToWildcardMapping the mapping that was created when the version was read for the first time
+     * @throws UncheckedIOException if the version cannot be read again
+     */
+    private static ComparableVersion readComparableVersion(PSLSource source, RuleDictionary dictionary,
+                                                           Map<String, String> exceptionToWildcardMapping) {
+        final ParsedPSLCache.CachedVersion cached = parsedCache == null ? null : parsedCache.get(source.getCacheKey());
+        final ParsedFile parsedFile;
+        try {
+            parsedFile = cached != null ? new ParsedFile(source.commitTimestamp, source.commitHash, cached) : readIntoPSL(source);
+        } catch (IOException e) {
+            throw new UncheckedIOException("cannot read again: " + source.getName(), e);
+        }
+        final PSL psl = parsedFile.toPSL(dictionary);
+        removeExceptionsWithoutWildcard(psl, exceptionToWildcardMapping);
+        return new ComparableVersion(psl.getCommitHash(), psl.getRuleIds(),
+                EqualityGroups.fingerprint(psl.getPslEntries()), determineTLDEntries(psl.getRuleIds(), dictionary),
+                dictionary);
+    }
+
+    /**
+     * @return true if the prepared versions are the versions of the files listed in the manifest
+     */
+    private static boolean matchesManifest(List<PreparedPSL> preparedPSLs, PrepareManifest manifest) {
+        if(preparedPSLs == null || preparedPSLs.isEmpty() || preparedPSLs.size() != manifest.getProcessedFiles().size()) {
+            return false;
+        }
+        final PreparedPSL last = preparedPSLs.get(preparedPSLs.size() - 1);
+        return manifest.getProcessedFiles().get(manifest.getProcessedFiles().size() - 1)
+                .equals(last.getCommitTimestamp() + "_" + last.getCommitHash());
+    }
+
+    /**
+     * writes the manifest to the MANIFEST_FILE
+     */
+    private static void writeManifest(PrepareManifest manifest) {
+        printNewHeader("write manifest", true);
+        try {
+            manifest.write(file(MANIFEST_FILE));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.out.println("done;");
+    }
+
+    /**
+     * @return the ids of all wildcards (entries that contain "*" and are no exception) of the psl version
+     */
+    private static int[] determineWildcards(PSL psl) {
+        return RuleIds.filter(RuleIds.fromBitSet(psl.getRuleIds()), psl.getDictionary()::isWildcard);
+    }
+
+    /**
+     * finds the wildcard for every exception of the psl version and removes all exceptions without associated wildcard
+     * from the psl version
+     * @param psl the psl version; exceptions without associated wildcard are removed
+     * @param wildcardIds the rule ids of the wildcards of the psl version (see determineWildcards)
+     * @param wildcardTrie the wildcards of the psl version are added to it; it may contain wildcards of other versions
+     * @return the mapping exception -> wildcard
+     */
+    private static Map<String, String> createExceptionWildcardMapping(PSL psl, int[] wildcardIds, WildcardTrie wildcardTrie) {
+        final RuleDictionary dictionary = psl.getDictionary();
+        final HashSet<Integer> exceptionsWithoutAssociatedWildcard = new HashSet<>();
+
+        final Map<String, String> exceptionWildcardMapping = new HashMap<>();
+
+        for(int wildcardId: wildcardIds) {
+            wildcardTrie.add(wildcardId, dictionary.getRule(wildcardId));
+        }
+        //find the wildcard for every exception
+        //TODO: is it unique? is something like this possible: !a.b.foo.bar, *.b.foo.bar, *.*.foo.bar??
+        //(if so the wildcard with the smallest rule id is used)
+        final BitSet ruleIds = psl.getRuleIds();
+        for(int ruleId = ruleIds.nextSetBit(0); ruleId >= 0; ruleId = ruleIds.nextSetBit(ruleId + 1)) {
+            if(!dictionary.isException(ruleId)) {
+                continue;
+            }
+            final String exception = dictionary.getRule(ruleId);
+            //only the wildcards of this version are considered
+            final int wildcardId = wildcardTrie.findWildcard(exception, psl::containsRuleId);
+            if(wildcardId >= 0) {
+                //found!
+                exceptionWildcardMapping.put(exception, dictionary.getRule(wildcardId));
+            } else {
+                exceptionsWithoutAssociatedWildcard.add(ruleId);
+                System.err.println("no wildcard found for: "+ exception +" ("+psl.getCommitHash()+")");
+            }
+        }
+        if(exceptionsWithoutAssociatedWildcard.size() > 0) {
+            //remove all exceptions that have no associated wildcards
+            psl.removeRuleIdsIf(exceptionsWithoutAssociatedWildcard::contains);
+            System.err.println(exceptionsWithoutAssociatedWildcard.size()+" exceptions without associated wildcard removed.");
+        }
+        return exceptionWildcardMapping;
+    }
+
+    /**
+     * removes the exceptions that are not part of the exception-wildcard-mapping (the ones without associated wildcard)
+     * from the psl version; same result as createExceptionWildcardMapping without searching the wildcards again
+     */
+    private static void removeExceptionsWithoutWildcard(PSL psl, Map<String, String> exceptionToWildcardMapping) {
+        psl.removeRuleIdsIf(id -> psl.getDictionary().isException(id)
+                && !exceptionToWildcardMapping.containsKey(psl.getDictionary().getRule(id)));
+    }
+
+    /**
+     * increments the count of every entry in allEntriesCount
+     * @param allEntriesCount the number of psl versions a certain entry appears in (indexed by rule id)
+     */
+    private static void countEntries(BitSet ruleIds, int[] allEntriesCount) {
+        for (int ruleId = ruleIds.nextSetBit(0); ruleId >= 0; ruleId = ruleIds.nextSetBit(ruleId + 1)) {
+            allEntriesCount[ruleId]++;
+        }
+    }
+
+    /**
+     * @param allEntriesCount the number of psl versions a certain entry appears in (indexed by rule id)
+     * @param numberOfVersions the number of all psl versions
+     * @return the ids of all entries that are part of every version
+     */
+    private static BitSet determineEntriesOfEveryVersion(int[] allEntriesCount, int numberOfVersions) {
+        final BitSet entriesOfEveryVersion = new BitSet(allEntriesCount.length);
+        for(int ruleId = 0; ruleId<allEntriesCount.length; ruleId++) {
+            if(allEntriesCount[ruleId] == numberOfVersions) {
+                entriesOfEveryVersion.set(ruleId);
+            }
+        }
+        return entriesOfEveryVersion;
+    }
+
+    /**
+     * @param allEntriesCount the number of psl versions a certain entry appears in (indexed by rule id)
+     * @return a map entry -> number of psl versions it appears in (entries that appear in no version are omitted)
+     */
+    private static Map<String, Integer> toEntryOccurrenceCounts(int[] allEntriesCount, RuleDictionary dictionary) {
+        final Map<String, Integer> entryOccurrenceCounts = new HashMap<>();
+        for(int ruleId = 0; ruleId<allEntriesCount.length; ruleId++) {
+            if(allEntriesCount[ruleId] > 0) {
+                entryOccurrenceCounts.put(dictionary.getRule(ruleId), allEntriesCount[ruleId]);
+            }
+        }
+        return entryOccurrenceCounts;
+    }
+
+    /**
+     * @return the ids of all entries that are a tld entry (entries like "com", ".com" or "com.")
+     */
+    private static BitSet determineTLDEntries(BitSet ruleIds, RuleDictionary dictionary) {
+        return RuleIds.filter(ruleIds, dictionary::isTLD);
+    }
+
+    /**
+     * @param ruleIds the entries of a psl version
+     * @param tldEntryIds the tld entries of the same psl version
+     * @param otherRuleIds the entries of another psl version
+     * @return all entries that are not a tld entry and are not present in the other version
+     */
+    private static int[] entriesMissingIn(BitSet ruleIds, BitSet tldEntryIds, BitSet otherRuleIds) {
+        final BitSet missing = RuleIds.difference(ruleIds, otherRuleIds);
+        missing.andNot(tldEntryIds);
+        return RuleIds.fromBitSet(missing);
+    }
+
+    private static String buildFilename(PSL psl) {
+        return psl.getCommitDate().getTime()+"_"+psl.getCommitHash();
+    }
+
+    /**
+     * minimal view of a parsed or already prepared psl version that is needed to compare it to other versions
+     */
+    private static class ComparableVersion {
+        private final String commitHash;
+        private final BitSet ruleIds;
+        private final long fingerprint;
+        private final BitSet tldEntryIds;
+        private final RuleDictionary dictionary;
+
+        ComparableVersion(String commitHash, BitSet ruleIds, long fingerprint, BitSet tldEntryIds,
+                          RuleDictionary dictionary) {
+            this.commitHash = commitHash;
+            this.ruleIds = ruleIds;
+            this.fingerprint = fingerprint;
+            this.tldEntryIds = tldEntryIds;
+            this.dictionary = dictionary;
+        }
+
+        long getFingerprintWithoutTLDs() {
+            return fingerprint - EqualityGroups.fingerprint(dictionary.toRuleList(RuleIds.fromBitSet(tldEntryIds)));
+        }
+
+        boolean hasEntries(ComparableVersion other) {
+            return ruleIds.equals(other.ruleIds);
+        }
+
+        boolean hasEntriesWithoutTLDs(ComparableVersion other) {
+            return RuleIds.difference(ruleIds, tldEntryIds).equals(RuleIds.difference(other.ruleIds, other.tldEntryIds));
+        }
+    }
 
     /**
      * to display progress
@@ -458,106 +927,315 @@ public class PSLFileReader {
     /***/
 
     /**
-     * Creates a model.PSL Object out of the psl File f. The file must be named according to the pattern <COMMIT TIMESTAMP>_<COMMIT_HASH>
-     * (ideally use download.PSLDownloader.java to retrieve the file) and contain a model.PSL
-     * @param f the file. It must be checked that the file is a file that can be read before calling this method.
-     * @return an Object of model.PSL  - never null
-     * @throws InvalidFilenameException if the file is not named correctly
-     */
-    private static PSL readIntoPSL(File f) throws InvalidFilenameException {
-        final String filename = f.getName();
-        final String[] split = filename.split("_");
-        if(split.length == 2) {
-            try{
-                Long timestamp = Long.valueOf(split[0]);
-                String hash = split[1];
-
-                try (BufferedReader reader = new BufferedReader(new FileReader(f))){
-
-                    String line = "";
-                    final List<String> pslEntries = new ArrayList<>();
-                    int numberOfEntriesThatAppearMoreThanOnce = 0;
-                    final HashMap<String, Boolean> alreadyRegisteredAsDuplicateEntry = new HashMap<>();
-                    final HashMap<String, Boolean> mapToPreventAddingOneEntryMoreThanOnce = new HashMap<String, Boolean>();
-                    try{
-                        while((line = reader.readLine()) != null) {
-                            //Each line is only read up to the first whitespace;
-                            int whiteSpaceIndex = -1;
-                            for(int i = 0; i<line.length(); i++) {
-                                if(Character.isWhitespace(line.charAt(i))){
-                                    whiteSpaceIndex = i;
-                                    break;
-                                }
-                            }
-                            if(whiteSpaceIndex >= 0) {
-                                line = line.substring(0, whiteSpaceIndex);
-                            }
-                            //upper/lowercase is not important (COM is equal com)
-                            line = line.toLowerCase();
-                            if(!line.startsWith("//") && !line.isBlank()){
-
-                                //not a comment, not an empty line -> rule
-                                if(mapToPreventAddingOneEntryMoreThanOnce.get(line) == null) {
-                                    pslEntries.add(line);
-                                    mapToPreventAddingOneEntryMoreThanOnce.put(line, true);
-                                } else {
-                                    if(alreadyRegisteredAsDuplicateEntry.get(line) == null) {
-                                        numberOfEntriesThatAppearMoreThanOnce++;
-                                        alreadyRegisteredAsDuplicateEntry.put(line, true);
-                                    }
-                                }
-
-                            }
-                        }
-                    } catch (IOException e) {
-                        // should not happen??
-                        e.printStackTrace();
-                    }
-                    return new PSL(new Date(timestamp), hash, pslEntries, numberOfEntriesThatAppearMoreThanOnce);
-                } catch (FileNotFoundException e) {
-                    e.printStackTrace();
-                } catch (IOException e) {
+     * Creates model.PSL Objects out of the psl versions. The versions are parsed on a bounded pool of worker threads (one
+     * per available processor). The entries are added to the dictionary in the calling thread in the order of the commit
+     * dates, so the rule ids do not depend on the order the workers finish in.
+     * @param sources the versions. It must be checked that the files are files that can be read before calling this
+     * method.
+     * @param dictionary the dictionary the entries of all versions are added to
+     * @return a list of model.PSL objects ordered by commit date asc (first to latest). Versions that cannot be read are
+     * not part of the list.
+     */
+    private static List<PSL> readIntoPSLs(List<PSLSource> sources, RuleDictionary dictionary) {
+        final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            //versions of the archive are decoded fastest in the order of the commit dates
+            final List<PSLSource> sorted = sortByCommitDate(sources);
+            final List<Future<ParsedFile>> futures = new ArrayList<>(sorted.size());
+            for(PSLSource source: sorted) {
+                futures.add(readOrGetCached(source, executor));
+            }
+            //collect the results in the calling thread; no shared state is modified by the workers
+            final List<ParsedFile> parsedFiles = new ArrayList<>(sorted.size());
+            for(int i = 0; i<futures.size(); i++) {
+                newItemProcessed(futures.size());
+                try {
+                    final ParsedFile parsedFile = futures.get(i).get();
+                    cache(sorted.get(i), parsedFile);
+                    parsedFiles.add(parsedFile);
+                } catch (ExecutionException e) {
                     e.printStackTrace();
+                    System.err.println("cannot read: " + sorted.get(i).getName());
                 }
-            }catch (NumberFormatException e) {
+            }
+            final List<PSL> pslList = new ArrayList<>(parsedFiles.size());
+            for(ParsedFile parsedFile: parsedFiles) {
+                pslList.add(parsedFile.toPSL(dictionary));
+            }
+            return pslList;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while reading the psl files", e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return the cached version of the source or, if it is not cached, the version parsed by the executor
+     */
+    private static Future<ParsedFile> readOrGetCached(PSLSource source, ExecutorService executor) {
+        final ParsedPSLCache.CachedVersion cached = parsedCache == null ? null : parsedCache.get(source.getCacheKey());
+        if(cached != null) {
+            return CompletableFuture.completedFuture(new ParsedFile(source.commitTimestamp, source.commitHash, cached));
+        }
+        return executor.submit(() -> readIntoPSL(source));
+    }
+
+    /**
+     * adds a version that was parsed (not taken from the cache) to the cache; must be called by the thread that adds
+     * the entries to the dictionary
+     */
+    private static void cache(PSLSource source, ParsedFile parsedFile) {
+        if(parsedCache != null && parsedFile.pslEntries != null) {
+            try {
+                parsedCache.put(source.getCacheKey(), parsedFile.pslEntries, parsedFile.numberOfEntriesThatAppearMoreThanOnce);
+            } catch (IOException e) {
                 e.printStackTrace();
             }
         }
-        throw new InvalidFilenameException();
-    }
-
-    /**
-     *
-     * @param exception the exception
-     * @param wildcard the wildcard
-     * @return true if the exception is exception for the wildcard, false otherwise
-     */
-    private static boolean isExceptionFromWildcard(String exception, String wildcard) {
-        //an exception must start with !
-        if(exception.startsWith("!")) {
-            //a wildcard must contain *
-            if(wildcard.contains("*")) {
-                //build String array of levels for exception and wildcard
-                String[] exceptionLevels = exception.split("\\.");
-                String[] wildcardLevels = wildcard.split("\\.");
-                //number of levels must match
-                if(exceptionLevels.length == wildcardLevels.length && exceptionLevels.length > 0) {
-                    int i = 0;
-                    //either the levels match 1:1 or the wildcardLevel is *
-                    while(exceptionLevels[i].equals(wildcardLevels[i]) || wildcardLevels[i].equals("*")) {
-                        i = i+1;
-                        if(i == exceptionLevels.length){
-                            //last one checked
-                            return true;
-                        }
-                    }
+    }
+
+    /**
+     * @return the versions ordered by commit date asc
+     */
+    private static List<PSLSource> sortByCommitDate(List<PSLSource> sources) {
+        return sources.stream()
+                .sorted(Comparator.comparingLong(source -> source.commitTimestamp))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * a psl version that can be read: a file in the PSL_FOLDER or a version in the PSL_ARCHIVE
+     */
+    private static class PSLSource {
+        private final long commitTimestamp;
+        private final String commitHash;
+        private final File file;
+        private final PSLArchive archive;
+        private final PSLArchive.Version version;
+
+        PSLSource(long commitTimestamp, String commitHash, File file, PSLArchive archive, PSLArchive.Version version) {
+            this.commitTimestamp = commitTimestamp;
+            this.commitHash = commitHash;
+            this.file = file;
+            this.archive = archive;
+            this.version = version;
+        }
+
+        /**
+         * @return <COMMIT TIMESTAMP>_<COMMIT_HASH> (the name of the file; see buildFilename)
+         */
+        String getName() {
+            return commitTimestamp+"_"+commitHash;
+        }
+
+        /**
+         * @return identifies the content of the version in the ParsedPSLCache: name, size and modification time of a
+         * file; name and content hash of a version in the archive (these never change)
+         */
+        String getCacheKey() {
+            return file != null
+                    ? getName() + "/" + file.length() + "/" + file.lastModified()
+                    : getName() + "/" + version.getContentHash();
+        }
+
+        /**
+         * @return the content of the psl version (utf-8 encoded); can be modified
+         */
+        byte[] readContent() throws IOException {
+            return file != null ? Files.readAllBytes(file.toPath()) : archive.readContent(version);
+        }
+    }
+
+    /**
+     * Reads the psl versions one after another (in the given order). Only a few versions are parsed ahead on worker
+     * threads, so at most that many parsed versions are in memory at a time. The entries are added to the dictionary in the calling
+     * thread, hence the rule ids do not depend on the order the workers finish in.
+     */
+    private static class PSLStream implements AutoCloseable {
+        private final List<PSLSource> files;
+        private final RuleDictionary dictionary;
+        private final ExecutorService executor;
+        private final Deque<Future<ParsedFile>> futures = new ArrayDeque<>();
+        private final int readAhead = Runtime.getRuntime().availableProcessors();
+        private int nextFileToSubmit = 0;
+        private int nextFileToReturn = 0;
+
+        PSLStream(List<PSLSource> files, RuleDictionary dictionary) {
+            this.files = files;
+            this.dictionary = dictionary;
+            this.executor = Executors.newFixedThreadPool(readAhead);
+        }
+
+        /**
+         * @return the next version or null if all files have been read
+         */
+        PSL next() {
+            while(nextFileToReturn < files.size()) {
+                while(nextFileToSubmit < files.size() && futures.size() < readAhead) {
+                    futures.add(readOrGetCached(files.get(nextFileToSubmit++), executor));
+                }
+                final PSLSource source = files.get(nextFileToReturn++);
+                try {
+                    final ParsedFile parsedFile = futures.poll().get();
+                    cache(source, parsedFile);
+                    return parsedFile.toPSL(dictionary);
+                } catch (ExecutionException e) {
+                    e.printStackTrace();
+                    System.err.println("cannot read: " + source.getName());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("interrupted while reading the psl files", e);
                 }
             }
+            return null;
+        }
+
+        /**
+         * @return the source of the version that was returned by the last call of next()
+         */
+        PSLSource getCurrentSource() {
+            return files.get(nextFileToReturn - 1);
+        }
+
+        @Override
+        public void close() {
+            executor.shutdownNow();
         }
-        return false;
     }
 
-    private static class InvalidFilenameException extends Exception {
+    /**
+     * Creates a model.PSL Object out of a psl version (ideally use download.PSLDownloader.java to retrieve the versions)
+     * @param source the version. It must be checked that the file is a file that can be read before calling this method.
+     * @return the parsed file - never null
+     * @throws IOException if the version cannot be read
+     */
+    private static ParsedFile readIntoPSL(PSLSource source) throws IOException {
+        //the whole version is read at once and parsed byte by byte (psl files are utf-8 encoded)
+        final byte[] content = source.readContent();
+        final List<String> pslEntries = new ArrayList<>();
+        final int numberOfEntriesThatAppearMoreThanOnce = parseRules(content, pslEntries);
+        return new ParsedFile(source.commitTimestamp, source.commitHash, pslEntries, numberOfEntriesThatAppearMoreThanOnce);
+    }
+
+    /**
+     * Parses the rules of a psl file line by line. Comments and empty lines are skipped without creating a String.
+     * @param content the content of the file; the rules are lowercased in place
+     * @param pslEntries every rule is added once to this list (in the order of the file)
+     * @return the number of rules that appear more than once
+     */
+    static int parseRules(byte[] content, List<String> pslEntries) {
+        final Set<String> alreadyAddedEntries = new HashSet<>();
+        final Set<String> alreadyRegisteredAsDuplicateEntry = new HashSet<>();
+        int numberOfEntriesThatAppearMoreThanOnce = 0;
+        int lineStart = 0;
+        while(lineStart < content.length) {
+            int lineEnd = lineStart;
+            while(lineEnd < content.length && content[lineEnd] != '\n' && content[lineEnd] != '\r') {
+                lineEnd++;
+            }
+            final String rule = parseRule(content, lineStart, lineEnd);
+            if(rule != null) {
+                //not a comment, not an empty line -> rule
+                if(alreadyAddedEntries.add(rule)) {
+                    pslEntries.add(rule);
+                } else if(alreadyRegisteredAsDuplicateEntry.add(rule)) {
+                    numberOfEntriesThatAppearMoreThanOnce++;
+                }
+            }
+            lineStart = lineEnd + 1;
+        }
+        return numberOfEntriesThatAppearMoreThanOnce;
+    }
+
+    /**
+     * @param start the index of the first byte of the line
+     * @param end the index of the line break (exclusive)
+     * @return the rule of the line or null if the line is a comment or empty
+     */
+    private static String parseRule(byte[] content, int start, int end) {
+        //Each line is only read up to the first whitespace;
+        int ruleEnd = start;
+        while(ruleEnd < end && !isAsciiWhitespace(content[ruleEnd])) {
+            if(content[ruleEnd] < 0) {
+                //not ascii (idn rule or unicode whitespace): decode the line
+                return parseRule(new String(content, start, end - start, StandardCharsets.UTF_8));
+            }
+            ruleEnd++;
+        }
+        if(ruleEnd == start || (ruleEnd - start >= 2 && content[start] == '/' && content[start + 1] == '/')) {
+            //empty line or comment
+            return null;
+        }
+        //upper/lowercase is not important (COM is equal com)
+        for(int i = start; i<ruleEnd; i++) {
+            if(content[i] >= 'A' && content[i] <= 'Z') {
+                content[i] += 'a' - 'A';
+            }
+        }
+        return new String(content, start, ruleEnd - start, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * same as parseRule(byte[], int, int) for a line that contains non ascii characters
+     */
+    private static String parseRule(String line) {
+        for(int i = 0; i<line.length(); i++) {
+            if(Character.isWhitespace(line.charAt(i))){
+                line = line.substring(0, i);
+                break;
+            }
+        }
+        line = line.toLowerCase();
+        if(line.startsWith("//") || line.isBlank()) {
+            return null;
+        }
+        return line;
+    }
+
+    /**
+     * @return true if Character.isWhitespace would return true for this (ascii) character
+     */
+    private static boolean isAsciiWhitespace(byte b) {
+        return b == ' ' || (b >= '\t' && b <= '\r') || (b >= 0x1C && b <= 0x1F);
+    }
 
+    /**
+     * content of a psl file before its entries are added to the dictionary: either the parsed entries or the version in
+     * the ParsedPSLCache
+     */
+    private static class ParsedFile {
+        private final long commitTimestamp;
+        private final String commitHash;
+        //null if cached
+        private final List<String> pslEntries;
+        private final ParsedPSLCache.CachedVersion cached;
+        private final int numberOfEntriesThatAppearMoreThanOnce;
+
+        ParsedFile(long commitTimestamp, String commitHash, List<String> pslEntries, int numberOfEntriesThatAppearMoreThanOnce) {
+            this.commitTimestamp = commitTimestamp;
+            this.commitHash = commitHash;
+            this.pslEntries = pslEntries;
+            this.cached = null;
+            this.numberOfEntriesThatAppearMoreThanOnce = numberOfEntriesThatAppearMoreThanOnce;
+        }
+
+        ParsedFile(long commitTimestamp, String commitHash, ParsedPSLCache.CachedVersion cached) {
+            this.commitTimestamp = commitTimestamp;
+            this.commitHash = commitHash;
+            this.pslEntries = null;
+            this.cached = cached;
+            this.numberOfEntriesThatAppearMoreThanOnce = cached.getNumberOfEntriesThatAppearMoreThanOnce();
+        }
+
+        /**
+         * adds the entries to the dictionary (in the order of the file)
+         */
+        PSL toPSL(RuleDictionary dictionary) {
+            final int[] ruleIds = pslEntries != null ? dictionary.getOrAddIds(pslEntries) : cached.getOrAddIds(dictionary);
+            return new PSL(new Date(commitTimestamp), commitHash, RuleIds.toBitSet(ruleIds), dictionary,
+                    numberOfEntriesThatAppearMoreThanOnce);
+        }
     }
 }
@@ -0,0 +1,245 @@
+package prepare;
+
+import model.RuleDictionary;
+import model.RuleIds;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Persistent cache of parsed psl versions (written by PSLFileReader), so a re-run only parses the versions that are new
+ * or were modified. A version is identified by a key that changes whenever its content may have changed (see
+ * PSLFileReader: name, size and modification time of a file). For every version the entries are stored as rule ids (in
+ * the order of the file, so the ids a dictionary assigns are the same as if the file was parsed) together with the
+ * number of entries that appear more than once.
+ *
+ * Layout (big endian):
+ * - magic, format version
+ * - one record per version: key, number of entries that appear more than once, rule ids (prefixed with their number)
+ * - rule dictionary: number of rules, every rule as utf-8 (the index is the rule id)
+ * - footer: offset of the dictionary
+ * Strings are stored as utf-8 prefixed with their length.
+ *
+ * The old cache is memory mapped and the rule ids of a version are only read when the version is used. The new cache is
+ * written to a temporary file while PSLFileReader runs: the versions that are parsed are appended as soon as they are
+ * read, the versions of the old cache that still exist are copied when the cache is closed. The dictionary of the new
+ * cache starts with the rules of the old one, so copied records keep their rule ids. The FORMAT_VERSION has to be
+ * changed whenever the parser changes its result.
+ */
+class ParsedPSLCache implements Closeable {
+    private static final int MAGIC = 0x50534c43; //PSLC
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int FOOTER_SIZE = Long.BYTES;
+
+    private final File cacheFile;
+    private final File temporaryFile;
+    private final DataOutputStream out;
+    //keys of the versions that still exist; records of other versions are not copied to the new cache
+    private final Set<String> liveKeys;
+    private final Set<String> writtenKeys = new HashSet<>();
+
+    //the old cache; empty if there is none
+    private final ByteBuffer buffer;
+    private final String[] rules;
+    //key -> [start, end) of the record
+    private final Map<String, int[]> records;
+
+    //dictionary of the new cache: the rules of the old cache followed by the rules that were added
+    private final Map<String, Integer> cacheRuleIds = new HashMap<>();
+    private final List<String> cacheRules = new ArrayList<>();
+
+    //rule id in the old cache -> rule id in mappedDictionary (-1 if not mapped yet)
+    private RuleDictionary mappedDictionary = null;
+    private int[] idMapping = null;
+
+    /**
+     * a version of the old cache; the rule ids are read when they are needed
+     */
+    class CachedVersion {
+        private final int position;
+        private final int numberOfEntriesThatAppearMoreThanOnce;
+
+        private CachedVersion(int position, int numberOfEntriesThatAppearMoreThanOnce) {
+            this.position = position;
+            this.numberOfEntriesThatAppearMoreThanOnce = numberOfEntriesThatAppearMoreThanOnce;
+        }
+
+        int getNumberOfEntriesThatAppearMoreThanOnce() {
+            return numberOfEntriesThatAppearMoreThanOnce;
+        }
+
+        /**
+         * adds the entries to the dictionary in the order of the file (same as dictionary.getOrAddIds(entries))
+         * @return the sorted ids of the entries in the dictionary
+         */
+        int[] getOrAddIds(RuleDictionary dictionary) {
+            if(mappedDictionary != dictionary) {
+                mappedDictionary = dictionary;
+                idMapping = new int[rules.length];
+                Arrays.fill(idMapping, -1);
+            }
+            final ByteBuffer record = buffer.duplicate();
+            record.position(position);
+            final int[] ruleIds = new int[record.getInt()];
+            for(int i = 0; i<ruleIds.length; i++) {
+                final int cacheRuleId = record.getInt();
+                if(idMapping[cacheRuleId] < 0) {
+                    idMapping[cacheRuleId] = dictionary.getOrAddId(rules[cacheRuleId]);
+                }
+                ruleIds[i] = idMapping[cacheRuleId];
+            }
+            return RuleIds.sortedDistinct(ruleIds);
+        }
+    }
+
+    private ParsedPSLCache(File cacheFile, Collection<String> liveKeys, ByteBuffer buffer, String[] rules,
+                           Map<String, int[]> records) throws IOException {
+        this.cacheFile = cacheFile;
+        this.liveKeys = new HashSet<>(liveKeys);
+        this.buffer = buffer;
+        this.rules = rules;
+        this.records = records;
+        for(String rule: rules) {
+            cacheRuleIds.put(rule, cacheRules.size());
+            cacheRules.add(rule);
+        }
+        //the old cache is still mapped, so it is replaced (not overwritten) when the new one is complete
+        this.temporaryFile = new File(cacheFile.getAbsoluteFile().getParentFile(), cacheFile.getName() + ".tmp");
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile, false)));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+    }
+
+    /**
+     * reads the index of the cache; if the cache does not exist or cannot be read, all versions are parsed again
+     * @param liveKeys the keys of all versions that exist
+     * @throws IOException if the new cache cannot be written
+     */
+    static ParsedPSLCache open(File cacheFile, Collection<String> liveKeys) throws IOException {
+        if(cacheFile.exists()) {
+            try(FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if(buffer.limit() >= HEADER_SIZE + FOOTER_SIZE && buffer.getInt(0) == MAGIC
+                        && buffer.getInt(Integer.BYTES) == FORMAT_VERSION) {
+                    final int dictionaryOffset = (int) buffer.getLong(buffer.limit() - FOOTER_SIZE);
+                    buffer.position(dictionaryOffset);
+                    final String[] rules = new String[buffer.getInt()];
+                    for(int i = 0; i<rules.length; i++) {
+                        rules[i] = readString(buffer);
+                    }
+                    final Map<String, int[]> records = new LinkedHashMap<>();
+                    buffer.position(HEADER_SIZE);
+                    while(buffer.position() < dictionaryOffset) {
+                        final int start = buffer.position();
+                        final String key = readString(buffer);
+                        buffer.getInt();
+                        final int count = buffer.getInt();
+                        buffer.position(buffer.position() + count * Integer.BYTES);
+                        records.put(key, new int[]{start, buffer.position()});
+                    }
+                    return new ParsedPSLCache(cacheFile, liveKeys, buffer, rules, records);
+                }
+                System.out.println(cacheFile + " is outdated; all versions are parsed");
+            } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+                e.printStackTrace();
+                System.err.println("cannot read " + cacheFile + "; all versions are parsed");
+            }
+        }
+        return new ParsedPSLCache(cacheFile, liveKeys, ByteBuffer.allocate(0), new String[0], new HashMap<>());
+    }
+
+    /**
+     * @return the cached version or null if the version has to be parsed
+     */
+    CachedVersion get(String key) {
+        final int[] record = records.get(key);
+        if(record == null) {
+            return null;
+        }
+        final ByteBuffer recordBuffer = buffer.duplicate();
+        recordBuffer.position(record[0]);
+        readString(recordBuffer);
+        final int numberOfEntriesThatAppearMoreThanOnce = recordBuffer.getInt();
+        return new CachedVersion(recordBuffer.position(), numberOfEntriesThatAppearMoreThanOnce);
+    }
+
+    /**
+     * adds a parsed version to the new cache
+     * @param pslEntries the entries in the order of the file
+     */
+    void put(String key, List<String> pslEntries, int numberOfEntriesThatAppearMoreThanOnce) throws IOException {
+        if(!writtenKeys.add(key)) {
+            return;
+        }
+        writeString(key);
+        out.writeInt(numberOfEntriesThatAppearMoreThanOnce);
+        out.writeInt(pslEntries.size());
+        for(String entry: pslEntries) {
+            Integer cacheRuleId = cacheRuleIds.get(entry);
+            if(cacheRuleId == null) {
+                cacheRuleId = cacheRules.size();
+                cacheRuleIds.put(entry, cacheRuleId);
+                cacheRules.add(entry);
+            }
+            out.writeInt(cacheRuleId);
+        }
+    }
+
+    /**
+     * copies the versions of the old cache that still exist and replaces the old cache with the new one
+     */
+    @Override
+    public void close() throws IOException {
+        boolean complete = false;
+        try {
+            for(Map.Entry<String, int[]> record: records.entrySet()) {
+                if(liveKeys.contains(record.getKey()) && writtenKeys.add(record.getKey())) {
+                    final int[] bounds = record.getValue();
+                    final byte[] bytes = new byte[bounds[1] - bounds[0]];
+                    buffer.duplicate().position(bounds[0]).get(bytes);
+                    out.write(bytes);
+                }
+            }
+            final long dictionaryOffset = out.size();
+            out.writeInt(cacheRules.size());
+            for(String rule: cacheRules) {
+                writeString(rule);
+            }
+            out.writeLong(dictionaryOffset);
+            if(out.size() == Integer.MAX_VALUE) {
+                //DataOutputStream.size() stops counting at Integer.MAX_VALUE
+                throw new IOException("cache too large");
+            }
+            complete = true;
+        } finally {
+            out.close();
+            if(complete) {
+                Files.move(temporaryFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                Files.deleteIfExists(temporaryFile.toPath());
+            }
+        }
+    }
+
+    private void writeString(String s) throws IOException {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,113 @@
+package prepare;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * This class contains the intermediate results of a PSLFileReader run that are needed to append new PSL versions to
+ * an existing prepared psl file without processing all versions again:
+ * - names of the processed files (ordered by commit date asc)
+ * - number of versions every entry appears in
+ * - groups of equal versions (commit hashes)
+ * - groups of equal versions without considering the tld entries (commit hashes)
+ * The tld entries of every version are not part of the manifest as they are already stored in the prepared psl file.
+ */
+public class PrepareManifest {
+    private final List<String> processedFiles;
+    private final Map<String, Integer> entryOccurrenceCounts;
+    private final List<List<String>> equalityGroups;
+    private final List<List<String>> equalityGroupsWithoutTLDs;
+
+    public PrepareManifest(List<String> processedFiles, Map<String, Integer> entryOccurrenceCounts,
+                           List<List<String>> equalityGroups, List<List<String>> equalityGroupsWithoutTLDs) {
+        this.processedFiles = processedFiles;
+        this.entryOccurrenceCounts = entryOccurrenceCounts;
+        this.equalityGroups = equalityGroups;
+        this.equalityGroupsWithoutTLDs = equalityGroupsWithoutTLDs;
+    }
+
+    public List<String> getProcessedFiles() {
+        return processedFiles;
+    }
+
+    public Map<String, Integer> getEntryOccurrenceCounts() {
+        return entryOccurrenceCounts;
+    }
+
+    public List<List<String>> getEqualityGroups() {
+        return equalityGroups;
+    }
+
+    public List<List<String>> getEqualityGroupsWithoutTLDs() {
+        return equalityGroupsWithoutTLDs;
+    }
+
+    public JSONObject toJsonObject() {
+        JSONObject ret = new JSONObject();
+        ret.put("processed_files", new JSONArray(processedFiles));
+        ret.put("entry_occurrence_counts", new JSONObject(entryOccurrenceCounts));
+        ret.put("equality_groups", new JSONArray(equalityGroups));
+        ret.put("equality_groups_without_tlds", new JSONArray(equalityGroupsWithoutTLDs));
+        return ret;
+    }
+
+    public static PrepareManifest fromJSONObject(JSONObject jsonObject) {
+        final List<String> processedFiles = new ArrayList<>();
+        final Map<String, Integer> entryOccurrenceCounts = new HashMap<>();
+        {
+            JSONArray jsonProcessedFiles = jsonObject.getJSONArray("processed_files");
+            for(int i = 0; i<jsonProcessedFiles.length(); i++) {
+                processedFiles.add(jsonProcessedFiles.getString(i));
+            }
+        }
+        {
+            JSONObject jsonCounts = jsonObject.getJSONObject("entry_occurrence_counts");
+            for(String entry: jsonCounts.keySet()) {
+                entryOccurrenceCounts.put(entry, jsonCounts.getInt(entry));
+            }
+        }
+        return new PrepareManifest(processedFiles, entryOccurrenceCounts,
+                groupsFromJSONArray(jsonObject.getJSONArray("equality_groups")),
+                groupsFromJSONArray(jsonObject.getJSONArray("equality_groups_without_tlds")));
+    }
+
+    private static List<List<String>> groupsFromJSONArray(JSONArray jsonGroups) {
+        final List<List<String>> groups = new ArrayList<>(jsonGroups.length());
+        for(int i = 0; i<jsonGroups.length(); i++) {
+            JSONArray jsonGroup = jsonGroups.getJSONArray(i);
+            final List<String> group = new ArrayList<>(jsonGroup.length());
+            for(int j = 0; j<jsonGroup.length(); j++) {
+                group.add(jsonGroup.getString(j));
+            }
+            groups.add(group);
+        }
+        return groups;
+    }
+
+    /**
+     * @param manifestFile the file written by write(File)
+     * @return null if the file does not exist or an error occurred, the manifest otherwise
+     */
+    public static PrepareManifest read(File manifestFile) {
+        if(!manifestFile.exists()) {
+            return null;
+        }
+        try(BufferedReader reader = new BufferedReader(new FileReader(manifestFile))) {
+            return fromJSONObject(new JSONObject(reader.lines().collect(Collectors.joining("\n"))));
+        } catch (IOException | JSONException e) {
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    public void write(File manifestFile) throws IOException {
+        try(FileWriter fileWriter = new FileWriter(manifestFile, false)) {
+            fileWriter.write(toJsonObject().toString());
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package prepare;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+/**
+ * This class finds the wildcard of an exception (e.g. *.foo.bar for !a.foo.bar). The wildcards of all versions are
+ * stored in a trie whose levels are the labels of the wildcards from right to left, so an exception is resolved by
+ * walking its labels from right to left instead of comparing it to every wildcard.
+ *
+ * An exception matches a wildcard if both have the same number of labels and every label of the wildcard is either
+ * equal to the label of the exception or *.
+ */
+class WildcardTrie {
+    private static final String WILDCARD_LABEL = "*";
+
+    private final Node root = new Node();
+
+    /**
+     * @param ruleId the rule id of the wildcard
+     * @param wildcard the wildcard; adding the same wildcard more than once has no effect
+     */
+    void add(int ruleId, String wildcard) {
+        final String[] labels = wildcard.split("\\.");
+        Node node = root;
+        for(int i = labels.length - 1; i >= 0; i--) {
+            node = node.children.computeIfAbsent(labels[i], label -> new Node());
+        }
+        node.ruleId = ruleId;
+    }
+
+    /**
+     * @param exception the exception
+     * @param isCandidate filters the wildcards by rule id (e.g. only the wildcards of a certain version)
+     * @return the smallest rule id of the wildcards that match the exception and are accepted by isCandidate, -1 if
+     * there is no such wildcard
+     */
+    int findWildcard(String exception, IntPredicate isCandidate) {
+        final String[] labels = exception.split("\\.");
+        if(labels.length == 0) {
+            return -1;
+        }
+        return findWildcard(root, labels, labels.length - 1, isCandidate);
+    }
+
+    private static int findWildcard(Node node, String[] labels, int index, IntPredicate isCandidate) {
+        if(index < 0) {
+            //all labels matched; the wildcard must not have more labels than the exception
+            return node.ruleId >= 0 && isCandidate.test(node.ruleId) ? node.ruleId : -1;
+        }
+        //either the labels match 1:1 or the label of the wildcard is *
+        final int exactMatch = findInChild(node.children.get(labels[index]), labels, index, isCandidate);
+        final int wildcardMatch = labels[index].equals(WILDCARD_LABEL) ? -1
+                : findInChild(node.children.get(WILDCARD_LABEL), labels, index, isCandidate);
+        if(exactMatch < 0 || wildcardMatch < 0) {
+            return Math.max(exactMatch, wildcardMatch);
+        }
+        return Math.min(exactMatch, wildcardMatch);
+    }
+
+    private static int findInChild(Node child, String[] labels, int index, IntPredicate isCandidate) {
+        return child == null ? -1 : findWildcard(child, labels, index - 1, isCandidate);
+    }
+
+    private static class Node {
+        private final Map<String, Node> children = new HashMap<>();
+        //rule id of the wildcard that ends at this node, -1 if there is none
+        private int ruleId = -1;
+    }
+}
@@ -2,5 +2,9 @@ package util;
 
 public class Filenames {
     public static final String PSL_VERSIONS_FOLDER = "pslversions";
+    public static final String PSL_VERSIONS_ARCHIVE = "pslversions.archive";
     public static final String PREPARED_PSL_JSON = "prepared_psl.json";
+    public static final String PREPARED_PSL_MANIFEST = "prepared_psl_manifest.json";
+    public static final String PREPARED_PSL_SNAPSHOT = "prepared_psl.snapshot";
+    public static final String PARSED_PSL_CACHE = "parsed_psl.cache";
 }
@@ -0,0 +1,486 @@
+package util;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Packed archive of psl versions (the content of the files in the PSL_VERSIONS_FOLDER) in a single file. Consecutive
+ * psl versions differ in a few lines only, so the content of a version is usually stored as a line delta to the content
+ * of the previous version, and identical contents are stored once.
+ *
+ * Layout (big endian): magic, format version, followed by one record per version in the order the versions were added:
+ * - commit timestamp, commit hash
+ * - type: KEYFRAME (the complete content), DELTA (the content as delta to the content of the previous record that has
+ *   content) or DUPLICATE (same content as an earlier record; no payload)
+ * - sha-256 of the content (identifies identical contents)
+ * - payload length and the gzip compressed payload
+ * A delta is a sequence of operations that either copy a range of lines of the previous content or insert bytes. Every
+ * KEYFRAME_INTERVAL-th record with content is a keyframe, so at most KEYFRAME_INTERVAL - 1 deltas have to be applied to
+ * read a version. Records are only appended; the index (by commit hash and by commit date) is built from the record
+ * headers when the archive is opened. Strings are stored as utf-8 prefixed with their length.
+ *
+ * The file is mapped as a single buffer, so an archive must not be larger than 2GB.
+ */
+public class PSLArchive {
+    private static final int MAGIC = 0x50534c41; //PSLA
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 2 * Integer.BYTES;
+    private static final int KEYFRAME_INTERVAL = 32;
+    //number of decoded contents that are kept to decode the following deltas
+    private static final int DECODED_CONTENTS_CACHE_SIZE = 2 * KEYFRAME_INTERVAL;
+
+    private static final byte KEYFRAME = 0;
+    private static final byte DELTA = 1;
+    private static final byte DUPLICATE = 2;
+
+    //delta operations
+    private static final byte COPY = 0;
+    private static final byte INSERT = 1;
+
+    private final ByteBuffer buffer;
+    //ordered like the records
+    private final List<Version> versions;
+    private final Map<String, Version> versionByCommitHash;
+    //the records that have content (keyframes and deltas)
+    private final List<Version> contentRecords;
+    //position after the last complete record
+    private final int end;
+    private final Map<Integer, byte[]> decodedContents = new LinkedHashMap<Integer, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, byte[]> eldest) {
+            return size() > DECODED_CONTENTS_CACHE_SIZE;
+        }
+    };
+
+    /**
+     * a psl version in the archive
+     */
+    public static class Version {
+        private final long commitTimestamp;
+        private final String commitHash;
+        private final byte type;
+        private final ByteBuffer contentHash;
+        private final int payloadPosition;
+        private final int payloadLength;
+        //index in contentRecords of the record with the content of this version
+        private int contentIndex;
+
+        private Version(long commitTimestamp, String commitHash, byte type, ByteBuffer contentHash, int payloadPosition, int payloadLength) {
+            this.commitTimestamp = commitTimestamp;
+            this.commitHash = commitHash;
+            this.type = type;
+            this.contentHash = contentHash;
+            this.payloadPosition = payloadPosition;
+            this.payloadLength = payloadLength;
+        }
+
+        public long getCommitTimestamp() {
+            return commitTimestamp;
+        }
+
+        public String getCommitHash() {
+            return commitHash;
+        }
+
+        /**
+         * @return the sha-256 of the content as hex string (versions with equal content have the same hash)
+         */
+        public String getContentHash() {
+            final StringBuilder hex = new StringBuilder();
+            for(int i = 0; i<contentHash.limit(); i++) {
+                hex.append(String.format("%02x", contentHash.get(i)));
+            }
+            return hex.toString();
+        }
+
+        /**
+         * @return the name of the file of this version in the PSL_VERSIONS_FOLDER (<COMMIT TIMESTAMP>_<COMMIT_HASH>)
+         */
+        public String getName() {
+            return commitTimestamp + "_" + commitHash;
+        }
+    }
+
+    private PSLArchive(ByteBuffer buffer, List<Version> versions, List<Version> contentRecords, int end) {
+        this.buffer = buffer;
+        this.versions = versions;
+        this.contentRecords = contentRecords;
+        this.end = end;
+        this.versionByCommitHash = new HashMap<>();
+        for(Version version: versions) {
+            versionByCommitHash.put(version.commitHash, version);
+        }
+    }
+
+    /**
+     * reads the index of the archive. An incomplete last record (e.g. if writing was interrupted) is ignored.
+     * @throws IOException if the file cannot be read or is no archive
+     */
+    public static PSLArchive open(File archiveFile) throws IOException {
+        try(FileChannel channel = FileChannel.open(archiveFile.toPath(), StandardOpenOption.READ)) {
+            return read(archiveFile, channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * reads the index of the archive from the buffer (the mapped file or its content)
+     */
+    private static PSLArchive read(File archiveFile, ByteBuffer buffer) throws IOException {
+        if(buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(archiveFile + " is no psl archive");
+        }
+        if(buffer.getInt(Integer.BYTES) != FORMAT_VERSION) {
+            throw new IOException("unsupported archive format version: " + buffer.getInt(Integer.BYTES));
+        }
+        final List<Version> versions = new ArrayList<>();
+        final List<Version> contentRecords = new ArrayList<>();
+        final Map<ByteBuffer, Integer> contentIndexByHash = new HashMap<>();
+        buffer.position(HEADER_SIZE);
+        int end = HEADER_SIZE;
+        try {
+            while(buffer.hasRemaining()) {
+                final long commitTimestamp = buffer.getLong();
+                final String commitHash = readString(buffer);
+                final byte type = buffer.get();
+                final byte[] contentHash = new byte[32];
+                buffer.get(contentHash);
+                final int payloadLength = buffer.getInt();
+                final Version version = new Version(commitTimestamp, commitHash, type, ByteBuffer.wrap(contentHash),
+                        buffer.position(), payloadLength);
+                buffer.position(buffer.position() + payloadLength);
+                if(type == DUPLICATE) {
+                    final Integer contentIndex = contentIndexByHash.get(version.contentHash);
+                    if(contentIndex == null) {
+                        throw new IOException(archiveFile + " is corrupt: no content for " + commitHash);
+                    }
+                    version.contentIndex = contentIndex;
+                } else if(type == KEYFRAME || type == DELTA) {
+                    if(type == DELTA && contentRecords.isEmpty()) {
+                        throw new IOException(archiveFile + " is corrupt: the first content is a delta");
+                    }
+                    version.contentIndex = contentRecords.size();
+                    contentRecords.add(version);
+                    contentIndexByHash.putIfAbsent(version.contentHash, version.contentIndex);
+                } else {
+                    throw new IOException(archiveFile + " is corrupt: unknown record type " + type);
+                }
+                versions.add(version);
+                end = buffer.position();
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            System.err.println("incomplete last record in " + archiveFile + " ignored");
+        }
+        return new PSLArchive(buffer, versions, contentRecords, end);
+    }
+
+    /**
+     * @return all versions in the order they were added
+     */
+    public List<Version> getVersions() {
+        return Collections.unmodifiableList(versions);
+    }
+
+    /**
+     * @return all versions ordered by commit date asc
+     */
+    public List<Version> getVersionsByCommitDate() {
+        final List<Version> sorted = new ArrayList<>(versions);
+        sorted.sort(Comparator.comparingLong(Version::getCommitTimestamp));
+        return sorted;
+    }
+
+    /**
+     * @return the version or null if the commit is not part of the archive
+     */
+    public Version getVersion(String commitHash) {
+        return versionByCommitHash.get(commitHash);
+    }
+
+    /**
+     * Reads the content of a version. The contents that were decoded last are kept, so reading the versions one after
+     * another (in the order they were added) decodes every delta once. Can be called by multiple threads.
+     * @return the content of the version (a new array that can be modified)
+     * @throws IOException if the content cannot be decoded
+     */
+    public synchronized byte[] readContent(Version version) throws IOException {
+        final int contentIndex = version.contentIndex;
+        //start at the last keyframe or at a decoded content after it
+        int start = contentIndex;
+        while(!decodedContents.containsKey(start) && contentRecords.get(start).type != KEYFRAME) {
+            start--;
+        }
+        byte[] content = decodedContents.get(start);
+        if(content == null) {
+            content = readPayload(contentRecords.get(start));
+            decodedContents.put(start, content);
+        }
+        for(int i = start + 1; i<=contentIndex; i++) {
+            content = applyDelta(content, readPayload(contentRecords.get(i)));
+            decodedContents.put(i, content);
+        }
+        if(!ByteBuffer.wrap(sha256(content)).equals(version.contentHash)) {
+            throw new IOException("content of " + version.getName() + " is corrupt");
+        }
+        return content.clone();
+    }
+
+    private byte[] readPayload(Version version) throws IOException {
+        final ByteBuffer payload = buffer.duplicate();
+        payload.position(version.payloadPosition).limit(version.payloadPosition + version.payloadLength);
+        final byte[] compressed = new byte[version.payloadLength];
+        payload.get(compressed);
+        try(InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * @param base the content the delta refers to
+     * @param delta the (decompressed) operations
+     */
+    private static byte[] applyDelta(byte[] base, byte[] delta) throws IOException {
+        final int[] lineStarts = lineStarts(base);
+        final ByteArrayOutputStream content = new ByteArrayOutputStream(base.length + 1024);
+        final DataInputStream in = new DataInputStream(new ByteArrayInputStream(delta));
+        try {
+            while(in.available() > 0) {
+                final byte operation = in.readByte();
+                if(operation == COPY) {
+                    final int firstLine = in.readInt();
+                    final int lines = in.readInt();
+                    content.write(base, lineStarts[firstLine], lineStarts[firstLine + lines] - lineStarts[firstLine]);
+                } else if(operation == INSERT) {
+                    final byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    content.write(bytes);
+                } else {
+                    throw new IOException("unknown delta operation " + operation);
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("invalid delta", e);
+        }
+        return content.toByteArray();
+    }
+
+    /**
+     * @param base the content of the previous record with content
+     * @return the operations that create the content out of the base (uncompressed)
+     */
+    private static byte[] createDelta(byte[] base, byte[] content) throws IOException {
+        final int[] baseLineStarts = lineStarts(base);
+        final int[] lineStarts = lineStarts(content);
+        final String[] baseLines = lines(base, baseLineStarts);
+        final String[] lines = lines(content, lineStarts);
+        //line -> the lines of the base with this content
+        final Map<String, List<Integer>> baseLinePositions = new HashMap<>();
+        for(int i = 0; i<baseLines.length; i++) {
+            baseLinePositions.computeIfAbsent(baseLines[i], line -> new ArrayList<>(1)).add(i);
+        }
+        final ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(delta);
+        int nextBaseLine = 0;
+        //first line that is not written yet and has to be inserted
+        int insertStart = 0;
+        int line = 0;
+        while(line < lines.length) {
+            //find the line of the base where the longest run of equal lines starts; prefer continuing the last copy
+            int bestBaseLine = -1;
+            int bestLength = 0;
+            final List<Integer> positions = baseLinePositions.getOrDefault(lines[line], Collections.emptyList());
+            for(int candidate: positions) {
+                int length = 0;
+                while(line + length < lines.length && candidate + length < baseLines.length
+                        && lines[line + length].equals(baseLines[candidate + length])) {
+                    length++;
+                }
+                if(length > bestLength || (length == bestLength && candidate == nextBaseLine)) {
+                    bestBaseLine = candidate;
+                    bestLength = length;
+                }
+            }
+            //copying a single short line (e.g. an empty line) is not worth an operation
+            if(bestLength == 0 || (bestLength == 1 && lines[line].length() < 16)) {
+                line++;
+                continue;
+            }
+            writeInsert(out, content, lineStarts[insertStart], lineStarts[line]);
+            out.writeByte(COPY);
+            out.writeInt(bestBaseLine);
+            out.writeInt(bestLength);
+            line += bestLength;
+            insertStart = line;
+            nextBaseLine = bestBaseLine + bestLength;
+        }
+        writeInsert(out, content, lineStarts[insertStart], lineStarts[line]);
+        out.flush();
+        return delta.toByteArray();
+    }
+
+    private static void writeInsert(DataOutputStream out, byte[] content, int from, int to) throws IOException {
+        if(to > from) {
+            out.writeByte(INSERT);
+            out.writeInt(to - from);
+            out.write(content, from, to - from);
+        }
+    }
+
+    /**
+     * @return the start of every line (a line ends after '\n') followed by the length of the content
+     */
+    private static int[] lineStarts(byte[] content) {
+        int lines = 0;
+        for(int i = 0; i<content.length; i++) {
+            if(content[i] == '\n' || i == content.length - 1) {
+                lines++;
+            }
+        }
+        final int[] lineStarts = new int[lines + 1];
+        int line = 1;
+        for(int i = 0; i<content.length; i++) {
+            if(content[i] == '\n' || i == content.length - 1) {
+                lineStarts[line++] = i + 1;
+            }
+        }
+        return lineStarts;
+    }
+
+    /**
+     * @return the lines (including the line break) as strings that contain one char per byte
+     */
+    private static String[] lines(byte[] content, int[] lineStarts) {
+        final String[] lines = new String[lineStarts.length - 1];
+        for(int i = 0; i<lines.length; i++) {
+            lines[i] = new String(content, lineStarts[i], lineStarts[i + 1] - lineStarts[i], StandardCharsets.ISO_8859_1);
+        }
+        return lines;
+    }
+
+    private static byte[] sha256(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            //every java platform supports sha-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try(OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * appends psl versions to an archive; the archive is created if it does not exist
+     */
+    public static class Writer implements Closeable {
+        private final DataOutputStream out;
+        private final Set<String> commitHashes = new HashSet<>();
+        private final Set<ByteBuffer> contentHashes = new HashSet<>();
+        //the content of the last record with content (the base of the next delta)
+        private byte[] previousContent = null;
+        private int recordsSinceKeyframe = 0;
+
+        /**
+         * The archive must not be opened (mapped) by a reader while an incomplete last record is dropped.
+         * @throws IOException if the archive cannot be read or written
+         */
+        public Writer(File archiveFile) throws IOException {
+            if(archiveFile.exists() && archiveFile.length() > 0) {
+                //read into the heap instead of mapping the file, so no mapping of the file is live when it is truncated
+                //(reading a truncated part of a mapping fails, some systems do not allow truncating a mapped file)
+                final PSLArchive archive = read(archiveFile, ByteBuffer.wrap(Files.readAllBytes(archiveFile.toPath())));
+                for(Version version: archive.versions) {
+                    commitHashes.add(version.commitHash);
+                    contentHashes.add(version.contentHash);
+                }
+                if(!archive.contentRecords.isEmpty()) {
+                    final Version last = archive.contentRecords.get(archive.contentRecords.size() - 1);
+                    previousContent = archive.readContent(last);
+                    for(int i = archive.contentRecords.size() - 1; archive.contentRecords.get(i).type != KEYFRAME; i--) {
+                        recordsSinceKeyframe++;
+                    }
+                    recordsSinceKeyframe++;
+                }
+                //drop an incomplete last record
+                if(archive.end < archiveFile.length()) {
+                    try(RandomAccessFile file = new RandomAccessFile(archiveFile, "rw")) {
+                        file.setLength(archive.end);
+                    }
+                }
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(archiveFile, true)));
+            } else {
+                out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(archiveFile, false)));
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+            }
+        }
+
+        /**
+         * @return true if the commit is already part of the archive
+         */
+        public boolean contains(String commitHash) {
+            return commitHashes.contains(commitHash);
+        }
+
+        /**
+         * appends the version to the archive
+         * @return false if the commit is already part of the archive (nothing is added)
+         */
+        public boolean add(long commitTimestamp, String commitHash, byte[] content) throws IOException {
+            if(!commitHashes.add(commitHash)) {
+                return false;
+            }
+            final byte[] contentHash = sha256(content);
+            final byte type;
+            final byte[] payload;
+            if(!contentHashes.add(ByteBuffer.wrap(contentHash))) {
+                type = DUPLICATE;
+                payload = new byte[0];
+            } else if(previousContent == null || recordsSinceKeyframe >= KEYFRAME_INTERVAL) {
+                type = KEYFRAME;
+                payload = gzip(content);
+                recordsSinceKeyframe = 1;
+                previousContent = content.clone();
+            } else {
+                type = DELTA;
+                payload = gzip(createDelta(previousContent, content));
+                recordsSinceKeyframe++;
+                previousContent = content.clone();
+            }
+            out.writeLong(commitTimestamp);
+            final byte[] hashBytes = commitHash.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(hashBytes.length);
+            out.write(hashBytes);
+            out.writeByte(type);
+            out.write(contentHash);
+            out.writeInt(payload.length);
+            out.write(payload);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
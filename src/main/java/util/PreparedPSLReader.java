@@ -1,14 +1,19 @@
 package util;
 
 import model.PreparedPSL;
-import org.json.JSONArray;
+import model.RuleIds;
+import model.RuleDictionary;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.stream.Collectors;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 public class PreparedPSLReader {
     /**
@@ -17,39 +22,74 @@ public class PreparedPSLReader {
      * @return null if an error occurred, a list of model.PreparedPSL objects otherwise
      */
     public static List<PreparedPSL> loadPreparedPSLs(final String prepared_psl_json_file){
+        return loadPreparedPSLs(prepared_psl_json_file, new RuleDictionary());
+    }
+
+    /**
+     * loads the binary snapshot written by PSLFileReader (see PreparedPSLSnapshot) into a list of PreparedPSL objects
+     * @param snapshot_file the filename/path of the snapshot
+     * @param dictionary the dictionary the entries of all versions are added to
+     * @return null if the file does not exist or an error occurred, a list of model.PreparedPSL objects otherwise
+     */
+    public static List<PreparedPSL> loadPreparedPSLSnapshot(final String snapshot_file, final RuleDictionary dictionary) {
+        final File snapshotFile = new File(snapshot_file);
+        if(!snapshotFile.exists()) {
+            return null;
+        }
+        try {
+            System.out.println("read snapshot");
+            return PreparedPSLSnapshot.read(snapshotFile, dictionary);
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("cannot read snapshot " + snapshot_file);
+        }
+        return null;
+    }
+
+    /**
+     * loads the prepared_psl_json file into a list of PreparedPSL objects. The file is not read into memory as a whole:
+     * the versions are cut out of the stream one after another and parsed to json objects on a bounded pool of worker
+     * threads (one per available processor). The PreparedPSL objects are created in the calling thread in the order of
+     * the file, so the rule ids do not depend on the order the workers finish in.
+     * @param prepared_psl_json_file the filename/path of the json file that contains the prepared pls (produced by PSLFileReader)
+     * @param dictionary the dictionary the entries of all versions are added to
+     * @return null if an error occurred, a list of model.PreparedPSL objects otherwise
+     */
+    public static List<PreparedPSL> loadPreparedPSLs(final String prepared_psl_json_file, final RuleDictionary dictionary){
         final File preparedPSLFile = new File(prepared_psl_json_file);
         if(preparedPSLFile.exists()){
             if(preparedPSLFile.canRead()) {
-                try(BufferedReader reader = new BufferedReader(new FileReader(preparedPSLFile))){
+                final ExecutorService executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+                try(Reader reader = new FileReader(preparedPSLFile)){
                     System.out.println("read file");
-                    String filecontent_json = reader.lines().collect(Collectors.joining("\n"));
-                    System.out.println("parse json");
+                    final JSONValueReader jsonReader = new JSONValueReader(reader);
                     List<PreparedPSL> preparedPSLs = new ArrayList<>();
                     try{
-                        JSONArray jsonArray = new JSONArray(filecontent_json);
-                        for(int i = 0; i<jsonArray.length(); i++) {
-                            JSONObject jsonObject = jsonArray.getJSONObject(i);
-                            preparedPSLs.add(PreparedPSL.fromJSONObject(jsonObject));
+                        final int first = jsonReader.nextClean();
+                        if(first == '[') {
+                            //old format: every version contains all of its entries
+                            final VersionArray versionArray = new VersionArray(dictionary);
+                            readVersions(jsonReader, executor, version -> preparedPSLs.add(versionArray.next(version)));
+                        } else if(first == '{') {
+                            readDeltaChain(jsonReader, executor, dictionary, preparedPSLs);
+                        } else {
+                            throw new JSONException("the file contains neither a json array nor a json object");
                         }
                     }catch (JSONException e) {
                         e.printStackTrace();
                     }
-                    System.out.println("sort list");
-                    preparedPSLs.sort((o1, o2) -> {
-                        final long diff = o1.getCommitTimestamp() - o2.getCommitTimestamp();
-                        if(diff > 0 ) {
-                            return 1;
-                        } else if (diff < 0) {
-                            return -1;
-                        } else {
-                            return 0;
-                        }
-                    });
+                    //the versions are written ordered by commit date, so the list only has to be sorted if the file was altered
+                    if(!isOrderedByCommitTimestamp(preparedPSLs)) {
+                        System.out.println("sort list");
+                        preparedPSLs.sort(Comparator.comparingLong(PreparedPSL::getCommitTimestamp));
+                    }
                     return preparedPSLs;
                 } catch (FileNotFoundException e) {
                     e.printStackTrace();
                 } catch (IOException e) {
                     e.printStackTrace();
+                } finally {
+                    executor.shutdownNow();
                 }
             } else {
                 System.err.println("cannot read "+ prepared_psl_json_file);
@@ -59,4 +99,270 @@ public class PreparedPSLReader {
         }
         return null;
     }
+
+    private static boolean isOrderedByCommitTimestamp(List<PreparedPSL> preparedPSLs) {
+        for(int i = 1; i<preparedPSLs.size(); i++) {
+            if(preparedPSLs.get(i - 1).getCommitTimestamp() > preparedPSLs.get(i).getCommitTimestamp()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * reads the elements of a json array of versions (the opening bracket must already be consumed). Only a few
+     * versions are parsed ahead on the worker threads; the parsed versions are passed to the consumer in the order of
+     * the file and in the calling thread.
+     */
+    private static void readVersions(JSONValueReader jsonReader, ExecutorService executor, Consumer<JSONObject> consumer)
+            throws IOException {
+        final int readAhead = 2 * Runtime.getRuntime().availableProcessors();
+        final Deque<Future<JSONObject>> futures = new ArrayDeque<>();
+        try {
+            if(jsonReader.peekClean() == ']') {
+                jsonReader.nextClean();
+            } else {
+                while(true) {
+                    final String versionText = jsonReader.nextValueText();
+                    futures.add(executor.submit(() -> new JSONObject(versionText)));
+                    if(futures.size() >= readAhead) {
+                        consumer.accept(getResult(futures.poll()));
+                    }
+                    final int next = jsonReader.nextClean();
+                    if(next == ']') {
+                        break;
+                    } else if(next != ',') {
+                        throw new JSONException("expected ',' or ']' after a version");
+                    }
+                }
+            }
+            while(!futures.isEmpty()) {
+                consumer.accept(getResult(futures.poll()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while reading the prepared psl versions", e);
+        }
+    }
+
+    private static JSONObject getResult(Future<JSONObject> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if(e.getCause() instanceof JSONException) {
+                throw (JSONException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * reconstructs the versions of a delta chain written by PreparedPSLWriter (the opening brace must already be
+     * consumed): the entries of a version are either contained completely (keyframe) or as the entries added and
+     * removed since the previous version. The header (format version and entries shared by all versions) has to
+     * precede the versions, as written by PreparedPSLWriter.
+     */
+    private static void readDeltaChain(JSONValueReader jsonReader, ExecutorService executor, RuleDictionary dictionary,
+                                       List<PreparedPSL> preparedPSLs) throws IOException {
+        final JSONObject header = new JSONObject();
+        if(jsonReader.peekClean() == '}') {
+            jsonReader.nextClean();
+            return;
+        }
+        while(true) {
+            final Object key = new JSONTokener(jsonReader.nextValueText()).nextValue();
+            if(!(key instanceof String)) {
+                throw new JSONException("invalid key " + key);
+            }
+            jsonReader.expect(':');
+            if(key.equals("versions")) {
+                jsonReader.expect('[');
+                final DeltaChain deltaChain = new DeltaChain(header, dictionary);
+                readVersions(jsonReader, executor, version -> preparedPSLs.add(deltaChain.next(version)));
+            } else {
+                header.put((String) key, new JSONTokener(jsonReader.nextValueText()).nextValue());
+            }
+            final int next = jsonReader.nextClean();
+            if(next == '}') {
+                return;
+            } else if(next != ',') {
+                throw new JSONException("expected ',' or '}'");
+            }
+        }
+    }
+
+    /**
+     * creates the versions of the old format, in which every version contains the entries shared by all versions
+     * itself; equal sets of shared entries are only kept once
+     */
+    private static class VersionArray {
+        private final RuleDictionary dictionary;
+        private BitSet entryIdsSharedByAll = null;
+
+        VersionArray(RuleDictionary dictionary) {
+            this.dictionary = dictionary;
+        }
+
+        PreparedPSL next(JSONObject version) {
+            final PreparedPSL preparedPSL = PreparedPSL.fromJSONObject(version, dictionary, entryIdsSharedByAll);
+            entryIdsSharedByAll = preparedPSL.getEntryIdsSharedByAll();
+            return preparedPSL;
+        }
+    }
+
+    private static class DeltaChain {
+        private final RuleDictionary dictionary;
+        private final BitSet entryIdsSharedByAll;
+        //all entries of the previous version
+        private BitSet entryIds = null;
+
+        DeltaChain(JSONObject header, RuleDictionary dictionary) {
+            if(!header.has("format_version")) {
+                throw new JSONException("the versions precede the header");
+            }
+            final int formatVersion = header.getInt("format_version");
+            if(formatVersion != PreparedPSLWriter.FORMAT_VERSION) {
+                throw new JSONException("unsupported format version " + formatVersion);
+            }
+            this.dictionary = dictionary;
+            this.entryIdsSharedByAll = RuleIds.toBitSet(PreparedPSL.ruleIdsFromJSONArray(
+                    header.getJSONArray("entries_that_all_versions_have_in_common"), dictionary));
+        }
+
+        PreparedPSL next(JSONObject version) {
+            if(version.has("keyframe")) {
+                entryIds = RuleIds.union(entryIdsSharedByAll, RuleIds.toBitSet(
+                        PreparedPSL.ruleIdsFromJSONArray(version.getJSONArray("keyframe"), dictionary)));
+            } else if(entryIds == null) {
+                throw new JSONException("the first version is no keyframe");
+            } else {
+                entryIds = (BitSet) entryIds.clone();
+                for(int id: PreparedPSL.ruleIdsFromJSONArray(version.getJSONArray("entries_added_since_previous_version"), dictionary)) {
+                    entryIds.set(id);
+                }
+                for(int id: PreparedPSL.ruleIdsFromJSONArray(version.getJSONArray("entries_removed_since_previous_version"), dictionary)) {
+                    entryIds.clear(id);
+                }
+            }
+            return PreparedPSL.fromJSONObject(version, dictionary, entryIdsSharedByAll, entryIds);
+        }
+    }
+
+    /**
+     * cuts the text of single json values out of a character stream without parsing them, so only the text of one
+     * value at a time has to be kept in memory
+     */
+    private static class JSONValueReader {
+        private final Reader reader;
+        private final char[] buffer = new char[1 << 16];
+        private int position = 0;
+        private int limit = 0;
+
+        JSONValueReader(Reader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * @return false if the end of the stream is reached
+         */
+        private boolean fill() throws IOException {
+            if(position < limit) {
+                return true;
+            }
+            position = 0;
+            limit = Math.max(reader.read(buffer, 0, buffer.length), 0);
+            return limit > 0;
+        }
+
+        private static boolean isWhitespace(char c) {
+            return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+        }
+
+        /**
+         * @return the next character that is no whitespace without consuming it, -1 at the end of the stream
+         */
+        int peekClean() throws IOException {
+            while(fill()) {
+                final char c = buffer[position];
+                if(!isWhitespace(c)) {
+                    return c;
+                }
+                position++;
+            }
+            return -1;
+        }
+
+        /**
+         * @return the next character that is no whitespace, -1 at the end of the stream
+         */
+        int nextClean() throws IOException {
+            final int c = peekClean();
+            if(c >= 0) {
+                position++;
+            }
+            return c;
+        }
+
+        void expect(char expected) throws IOException {
+            final int c = nextClean();
+            if(c != expected) {
+                throw new JSONException("expected '" + expected + "' but found " + (c < 0 ? "the end of the file" : "'" + (char) c + "'"));
+            }
+        }
+
+        /**
+         * @return the complete text of the next json value (object, array, string or literal)
+         */
+        String nextValueText() throws IOException {
+            if(peekClean() < 0) {
+                throw new JSONException("unexpected end of the file");
+            }
+            final StringBuilder text = new StringBuilder();
+            int depth = 0;
+            boolean inString = false;
+            boolean escaped = false;
+            while(fill()) {
+                final int start = position;
+                while(position < limit) {
+                    final char c = buffer[position];
+                    if(inString) {
+                        if(escaped) {
+                            escaped = false;
+                        } else if(c == '\\') {
+                            escaped = true;
+                        } else if(c == '"') {
+                            inString = false;
+                            if(depth == 0) {
+                                position++;
+                                return text.append(buffer, start, position - start).toString();
+                            }
+                        }
+                    } else if(c == '"') {
+                        inString = true;
+                    } else if(c == '{' || c == '[') {
+                        depth++;
+                    } else if(c == '}' || c == ']') {
+                        if(depth == 0) {
+                            //end of a literal
+                            return text.append(buffer, start, position - start).toString();
+                        }
+                        depth--;
+                        if(depth == 0) {
+                            position++;
+                            return text.append(buffer, start, position - start).toString();
+                        }
+                    } else if(depth == 0 && (c == ',' || c == ':' || isWhitespace(c))) {
+                        //end of a literal
+                        return text.append(buffer, start, position - start).toString();
+                    }
+                    position++;
+                }
+                text.append(buffer, start, position - start);
+            }
+            if(depth > 0 || inString) {
+                throw new JSONException("unexpected end of the file");
+            }
+            return text.toString();
+        }
+    }
 }
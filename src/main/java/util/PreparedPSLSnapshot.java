@@ -0,0 +1,452 @@
+package util;
+
+import model.HeapFootprint;
+import model.PreparedPSL;
+import model.RuleDictionary;
+import model.VersionEntries;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Binary snapshot of the prepared psl versions (written next to the json file by PSLFileReader). The snapshot is
+ * memory mapped when it is read, so no json text or DOM has to be built.
+ *
+ * Layout (big endian):
+ * - magic, format version
+ * - one record per version (ordered by commit date asc):
+ *   commit timestamp, commit hash, equality class, equality class without tlds, entries (bitset including the entries
+ *   shared by all versions), tld entries (bitset), added/removed entries and wildcards (rule id arrays),
+ *   exception-wildcard-mapping (pairs of rule ids)
+ * - rule dictionary: number of rules, every rule as utf-8 (the index is the rule id)
+ * - entries shared by all versions (bitset)
+ * - offsets of the version records
+ * - footer: offsets of the dictionary, the shared entries and the version offsets
+ * Bitsets are stored as number of words followed by the words (see BitSet.toLongArray()), strings and arrays are
+ * prefixed with their length.
+ *
+ * The file is mapped as a single buffer, so a snapshot must not be larger than 2GB.
+ *
+ * The entries and tld entries of the versions stay in the mapped file: membership tests read the bitset words
+ * directly, and the bitsets are only built when a version's entries are requested. A bounded number of built versions
+ * is cached (least recently used), so the memory needed scales with the versions actually used. A snapshot is written
+ * to a temporary file that replaces the old snapshot when it is complete, so the versions read from the old snapshot
+ * remain valid.
+ */
+public class PreparedPSLSnapshot {
+    private static final int MAGIC = 0x50534c53; //PSLS
+    private static final int FORMAT_VERSION = 1;
+    private static final int FOOTER_SIZE = 3 * Long.BYTES;
+    //number of versions whose entries are cached as bitsets (per read snapshot)
+    private static final int HYDRATED_VERSIONS_CACHE_SIZE = 128;
+
+    private PreparedPSLSnapshot() {
+    }
+
+    /**
+     * @param dictionary the dictionary the rules of the snapshot are added to
+     * @return the prepared psl versions ordered by commit date asc
+     * @throws IOException if the file cannot be read or is no snapshot
+     */
+    public static List<PreparedPSL> read(File snapshotFile, RuleDictionary dictionary) throws IOException {
+        try(FileChannel channel = FileChannel.open(snapshotFile.toPath(), StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if(buffer.limit() < 2 * Integer.BYTES + FOOTER_SIZE || buffer.getInt(0) != MAGIC) {
+                throw new IOException(snapshotFile + " is no prepared psl snapshot");
+            }
+            if(buffer.getInt(Integer.BYTES) != FORMAT_VERSION) {
+                throw new IOException("unsupported snapshot format version: " + buffer.getInt(Integer.BYTES));
+            }
+            final int footer = buffer.limit() - FOOTER_SIZE;
+            final long dictionaryOffset = buffer.getLong(footer);
+            final long sharedOffset = buffer.getLong(footer + Long.BYTES);
+            final long indexOffset = buffer.getLong(footer + 2 * Long.BYTES);
+
+            //rule id in the snapshot -> rule id in the dictionary (usually the same if the dictionary is empty)
+            buffer.position((int) dictionaryOffset);
+            final int[] ruleIds = new int[buffer.getInt()];
+            boolean sameIds = true;
+            for(int i = 0; i<ruleIds.length; i++) {
+                ruleIds[i] = dictionary.getOrAddId(readString(buffer));
+                sameIds &= ruleIds[i] == i;
+            }
+            final int[] idMapping = sameIds ? null : ruleIds;
+
+            buffer.position((int) sharedOffset);
+            final BitSet entryIdsSharedByAll = readBitSet(buffer, idMapping);
+
+            buffer.position((int) indexOffset);
+            final long[] versionOffsets = new long[buffer.getInt()];
+            for(int i = 0; i<versionOffsets.length; i++) {
+                versionOffsets[i] = buffer.getLong();
+            }
+
+            //the equal lists need the classes of all versions
+            final List<String> commitHashes = new ArrayList<>(versionOffsets.length);
+            final int[] equalityClasses = new int[versionOffsets.length];
+            final int[] equalityClassesWithoutTLDs = new int[versionOffsets.length];
+            for(int i = 0; i<versionOffsets.length; i++) {
+                buffer.position((int) versionOffsets[i] + Long.BYTES);
+                commitHashes.add(readString(buffer));
+                equalityClasses[i] = buffer.getInt();
+                equalityClassesWithoutTLDs[i] = buffer.getInt();
+            }
+            final List<List<String>> equalPSLs = toEqualLists(commitHashes, equalityClasses);
+            final List<List<String>> equalWithoutTLDEntries = toEqualLists(commitHashes, equalityClassesWithoutTLDs);
+
+            final HydratedVersionsCache cache = new HydratedVersionsCache();
+            final List<PreparedPSL> preparedPSLs = new ArrayList<>(versionOffsets.length);
+            for(int i = 0; i<versionOffsets.length; i++) {
+                buffer.position((int) versionOffsets[i]);
+                final long commitTimestamp = buffer.getLong();
+                //commit hash and classes are already known
+                buffer.position(buffer.position() + Integer.BYTES + buffer.getInt(buffer.position()) + 2 * Integer.BYTES);
+                final VersionEntries entries;
+                if(idMapping == null) {
+                    final int entriesPosition = buffer.position();
+                    skipBitSet(buffer);
+                    final int tldEntriesPosition = buffer.position();
+                    skipBitSet(buffer);
+                    entries = new MappedEntries(buffer, entriesPosition, tldEntriesPosition, cache);
+                } else {
+                    //the ids of the bitsets do not match the ids of the dictionary, so build them now
+                    final BitSet entryIds = readBitSet(buffer, idMapping);
+                    final BitSet tldEntryIds = readBitSet(buffer, idMapping);
+                    entries = VersionEntries.of(entryIds, tldEntryIds);
+                }
+                final int[] addedEntryIds = readRuleIds(buffer, idMapping);
+                final int[] removedEntryIds = readRuleIds(buffer, idMapping);
+                final int[] wildcardIds = readRuleIds(buffer, idMapping);
+                final Map<String, String> exceptionToWildcardMapping = new HashMap<>();
+                final int mappingSize = buffer.getInt();
+                for(int j = 0; j<mappingSize; j++) {
+                    exceptionToWildcardMapping.put(dictionary.getRule(mapRuleId(buffer.getInt(), idMapping)),
+                            dictionary.getRule(mapRuleId(buffer.getInt(), idMapping)));
+                }
+                preparedPSLs.add(new PreparedPSL(commitTimestamp, commitHashes.get(i), dictionary, entryIdsSharedByAll,
+                        addedEntryIds, removedEntryIds, entries, equalPSLs.get(i),
+                        equalWithoutTLDEntries.get(i), exceptionToWildcardMapping, wildcardIds));
+            }
+            return preparedPSLs;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException(snapshotFile + " is corrupt", e);
+        }
+    }
+
+    /**
+     * @return for every version the commit hashes of the other versions with the same class (ordered like the versions)
+     */
+    private static List<List<String>> toEqualLists(List<String> commitHashes, int[] classes) {
+        final Map<Integer, List<String>> membersByClass = new HashMap<>();
+        for(int i = 0; i<classes.length; i++) {
+            membersByClass.computeIfAbsent(classes[i], c -> new ArrayList<>()).add(commitHashes.get(i));
+        }
+        final List<List<String>> equalLists = new ArrayList<>(classes.length);
+        for(int i = 0; i<classes.length; i++) {
+            final String commitHash = commitHashes.get(i);
+            final List<String> equal = new ArrayList<>(membersByClass.get(classes[i]));
+            equal.remove(commitHash);
+            equalLists.add(equal);
+        }
+        return equalLists;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static BitSet readBitSet(ByteBuffer buffer, int[] idMapping) {
+        final long[] words = new long[buffer.getInt()];
+        buffer.asLongBuffer().get(words);
+        buffer.position(buffer.position() + words.length * Long.BYTES);
+        final BitSet bitSet = BitSet.valueOf(words);
+        if(idMapping == null) {
+            return bitSet;
+        }
+        final BitSet mapped = new BitSet();
+        bitSet.stream().forEach(id -> mapped.set(idMapping[id]));
+        return mapped;
+    }
+
+    private static void skipBitSet(ByteBuffer buffer) {
+        final int words = buffer.getInt();
+        buffer.position(buffer.position() + words * Long.BYTES);
+    }
+
+    /**
+     * @param position the position of a bitset (number of words followed by the words)
+     */
+    private static BitSet readBitSet(ByteBuffer buffer, int position) {
+        return BitSet.valueOf(readWords(buffer, position));
+    }
+
+    /**
+     * @param position the position of a bitset (number of words followed by the words)
+     */
+    private static long[] readWords(ByteBuffer buffer, int position) {
+        final long[] words = new long[buffer.getInt(position)];
+        for(int i = 0; i<words.length; i++) {
+            words[i] = buffer.getLong(position + Integer.BYTES + i * Long.BYTES);
+        }
+        return words;
+    }
+
+    private static int[] readRuleIds(ByteBuffer buffer, int[] idMapping) {
+        final int[] ruleIds = new int[buffer.getInt()];
+        for(int i = 0; i<ruleIds.length; i++) {
+            ruleIds[i] = mapRuleId(buffer.getInt(), idMapping);
+        }
+        if(idMapping != null) {
+            Arrays.sort(ruleIds);
+        }
+        return ruleIds;
+    }
+
+    private static int mapRuleId(int ruleId, int[] idMapping) {
+        return idMapping == null ? ruleId : idMapping[ruleId];
+    }
+
+    /**
+     * the entries of a version that stay in the mapped snapshot. Only absolute reads are used, so the buffer can be
+     * shared by all versions and threads.
+     */
+    private static class MappedEntries implements VersionEntries {
+        private final ByteBuffer buffer;
+        private final int entriesPosition;
+        private final int tldEntriesPosition;
+        private final HydratedVersionsCache cache;
+
+        MappedEntries(ByteBuffer buffer, int entriesPosition, int tldEntriesPosition, HydratedVersionsCache cache) {
+            this.buffer = buffer;
+            this.entriesPosition = entriesPosition;
+            this.tldEntriesPosition = tldEntriesPosition;
+            this.cache = cache;
+        }
+
+        @Override
+        public boolean containsEntryId(int ruleId) {
+            final int wordIndex = ruleId >>> 6;
+            return wordIndex < buffer.getInt(entriesPosition)
+                    && (buffer.getLong(entriesPosition + Integer.BYTES + wordIndex * Long.BYTES) & (1L << ruleId)) != 0;
+        }
+
+        @Override
+        public BitSet getEntryIds() {
+            return cache.get(this).getEntryIds();
+        }
+
+        @Override
+        public BitSet getTldEntryIds() {
+            return cache.get(this).getTldEntryIds();
+        }
+
+        @Override
+        public long[] getEntryWords() {
+            //read from the mapped file, so the version is neither built nor put into the cache
+            return readWords(buffer, entriesPosition);
+        }
+
+        @Override
+        public long estimateHeapBytes() {
+            //the entries stay in the mapped file; only the bitsets in the cache are on the heap
+            final VersionEntries hydrated = cache.peek(this);
+            return HeapFootprint.align(12 + 3 * 4 + 2 * Integer.BYTES) + (hydrated == null ? 0 : hydrated.estimateHeapBytes());
+        }
+
+        VersionEntries hydrate() {
+            return VersionEntries.of(readBitSet(buffer, entriesPosition), readBitSet(buffer, tldEntriesPosition));
+        }
+    }
+
+    /**
+     * the versions whose entries were built last (least recently used versions are evicted)
+     */
+    private static class HydratedVersionsCache {
+        private final Map<MappedEntries, VersionEntries> hydrated =
+                new LinkedHashMap<MappedEntries, VersionEntries>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<MappedEntries, VersionEntries> eldest) {
+                        return size() > HYDRATED_VERSIONS_CACHE_SIZE;
+                    }
+                };
+
+        synchronized VersionEntries get(MappedEntries entries) {
+            return hydrated.computeIfAbsent(entries, MappedEntries::hydrate);
+        }
+
+        /**
+         * @return the built entries or null if they are not cached; does not change the order of eviction
+         */
+        synchronized VersionEntries peek(MappedEntries entries) {
+            for(Map.Entry<MappedEntries, VersionEntries> entry: hydrated.entrySet()) {
+                if(entry.getKey() == entries) {
+                    return entry.getValue();
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * writes the prepared psl versions to a snapshot file one at a time. All versions must share the same dictionary
+     * and the same entries shared by all versions.
+     */
+    public static class Writer implements Closeable {
+        private final File snapshotFile;
+        private final File temporaryFile;
+        private final DataOutputStream out;
+        private final List<Long> versionOffsets = new ArrayList<>();
+        //commit hash -> equality class
+        private final Map<String, Integer> equalityClasses = new HashMap<>();
+        private final Map<String, Integer> equalityClassesWithoutTLDs = new HashMap<>();
+        private RuleDictionary dictionary;
+        private BitSet entryIdsSharedByAll = new BitSet();
+        private int numberOfEqualityClasses = 0;
+        //true if a version could not be written (or the writer was aborted); the old snapshot is kept then
+        private boolean failed = false;
+
+        public Writer(File snapshotFile) throws IOException {
+            this.snapshotFile = snapshotFile;
+            //the old snapshot may still be mapped, so it is replaced (not overwritten) when the new one is complete
+            this.temporaryFile = new File(snapshotFile.getAbsoluteFile().getParentFile(), snapshotFile.getName() + ".tmp");
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile, false)));
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+        }
+
+        /**
+         * appends the version; the versions must be written ordered by commit date asc. If the version cannot be
+         * written, the snapshot is not completed by close (so the old snapshot is kept).
+         */
+        public void write(PreparedPSL preparedPSL) throws IOException {
+            try {
+                writeVersion(preparedPSL);
+            } catch (IOException | RuntimeException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        private void writeVersion(PreparedPSL preparedPSL) throws IOException {
+            if(dictionary == null) {
+                dictionary = preparedPSL.getDictionary();
+                entryIdsSharedByAll = preparedPSL.getEntryIdsSharedByAll();
+            } else if(dictionary != preparedPSL.getDictionary()
+                    || !entryIdsSharedByAll.equals(preparedPSL.getEntryIdsSharedByAll())) {
+                throw new IllegalArgumentException("all versions of a snapshot must share the dictionary and the entries shared by all versions");
+            }
+            versionOffsets.add((long) out.size());
+            out.writeLong(preparedPSL.getCommitTimestamp());
+            writeString(preparedPSL.getCommitHash());
+            out.writeInt(equalityClass(equalityClasses, preparedPSL.getCommitHash(), preparedPSL.getEqualPSLs()));
+            out.writeInt(equalityClass(equalityClassesWithoutTLDs, preparedPSL.getCommitHash(), preparedPSL.getEqualWithoutTLDEntries()));
+            writeBitSet(preparedPSL.getEntryIds());
+            writeBitSet(preparedPSL.getTldEntryIds());
+            writeRuleIds(preparedPSL.getAddedEntryIds());
+            writeRuleIds(preparedPSL.getRemovedEntryIds());
+            writeRuleIds(preparedPSL.getWildcardIds());
+            out.writeInt(preparedPSL.getExceptionToWildcardMapping().size());
+            for(Map.Entry<String, String> entry: preparedPSL.getExceptionToWildcardMapping().entrySet()) {
+                out.writeInt(dictionary.getId(entry.getKey()));
+                out.writeInt(dictionary.getId(entry.getValue()));
+            }
+        }
+
+        /**
+         * discards the snapshot: close deletes the temporary file and keeps the old snapshot
+         */
+        public void abort() {
+            failed = true;
+        }
+
+        /**
+         * writes the dictionary, the shared entries and the index, closes the file and replaces the old snapshot; if a
+         * version could not be written or the writer was aborted, only the temporary file is deleted
+         */
+        @Override
+        public void close() throws IOException {
+            boolean complete = false;
+            try {
+                if(failed) {
+                    return;
+                }
+                final long dictionaryOffset = out.size();
+                final int numberOfRules = dictionary == null ? 0 : dictionary.size();
+                out.writeInt(numberOfRules);
+                for(int i = 0; i<numberOfRules; i++) {
+                    writeString(dictionary.getRule(i));
+                }
+                final long sharedOffset = out.size();
+                writeBitSet(entryIdsSharedByAll);
+                final long indexOffset = out.size();
+                out.writeInt(versionOffsets.size());
+                for(long offset: versionOffsets) {
+                    out.writeLong(offset);
+                }
+                out.writeLong(dictionaryOffset);
+                out.writeLong(sharedOffset);
+                out.writeLong(indexOffset);
+                if(out.size() == Integer.MAX_VALUE) {
+                    //DataOutputStream.size() stops counting at Integer.MAX_VALUE
+                    throw new IOException("snapshot too large");
+                }
+                complete = true;
+            } finally {
+                out.close();
+                if(complete) {
+                    Files.move(temporaryFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE);
+                } else {
+                    Files.deleteIfExists(temporaryFile.toPath());
+                }
+            }
+        }
+
+        /**
+         * @return the class of the version; equal versions (see equalPSLs) get the same class
+         */
+        private int equalityClass(Map<String, Integer> classes, String commitHash, List<String> equalPSLs) {
+            for(String equal: equalPSLs) {
+                final Integer equalityClass = classes.get(equal);
+                if(equalityClass != null) {
+                    classes.put(commitHash, equalityClass);
+                    return equalityClass;
+                }
+            }
+            final int equalityClass = numberOfEqualityClasses++;
+            classes.put(commitHash, equalityClass);
+            return equalityClass;
+        }
+
+        private void writeString(String s) throws IOException {
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private void writeBitSet(BitSet bitSet) throws IOException {
+            final long[] words = bitSet.toLongArray();
+            out.writeInt(words.length);
+            for(long word: words) {
+                out.writeLong(word);
+            }
+        }
+
+        private void writeRuleIds(int[] ruleIds) throws IOException {
+            out.writeInt(ruleIds.length);
+            for(int ruleId: ruleIds) {
+                out.writeInt(ruleId);
+            }
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package util;
+
+import model.PreparedPSL;
+import model.RuleDictionary;
+import model.RuleIds;
+import org.json.JSONObject;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * writes PreparedPSL objects to a json file (the format that is read by PreparedPSLReader) one at a time. Every version
+ * is serialized directly to the buffered file writer, so neither a json representation of all versions nor the
+ * complete output string has to be kept in memory. Optionally the versions are written to a binary snapshot
+ * (see PreparedPSLSnapshot) too.
+ *
+ * The versions are written to a temporary file that replaces the output file when the writer is closed. If a version
+ * cannot be written or the writer is aborted, the temporary file is deleted and the previous output file (and snapshot)
+ * are kept.
+ *
+ * The file is a delta chain: the entries that all versions have in common are written once, and the entries of a
+ * version are only written completely for every KEYFRAME_INTERVAL-th version (keyframe). All other versions only
+ * contain the entries that were added and removed since the previous version, so the reader reconstructs the entries
+ * from the last keyframe. The tld entries and the wildcards of a version are not written at all, the reader derives
+ * them from the entries (see RuleDictionary).
+ * {
+ *   "format_version": 2,
+ *   "keyframe_interval": 64,
+ *   "entries_that_all_versions_have_in_common": [...],
+ *   "versions": [
+ *     {"commit_timestamp": ..., "commit_hash": ..., "removed_entries": [...], "added_entries": [...],
+ *      "keyframe": [...] or "entries_added_since_previous_version": [...], "entries_removed_since_previous_version": [...],
+ *      "equal_psls": [...], "equal_without_tlds": [...], "exception_to_wildcard_mapping": {...}},
+ *     ...
+ *   ]
+ * }
+ */
+public class PreparedPSLWriter implements Closeable {
+    public static final int FORMAT_VERSION = 2;
+    public static final int KEYFRAME_INTERVAL = 64;
+
+    private final File outputFile;
+    private final File temporaryFile;
+    private final Writer writer;
+    private final PreparedPSLSnapshot.Writer snapshotWriter;
+    //the entries shared by all versions as written to the header; null until the first version is written
+    private BitSet entryIdsSharedByAll = null;
+    //all entries of the previously written version
+    private BitSet previousEntryIds = null;
+    private int versionCount = 0;
+    //true if a version could not be written (or the writer was aborted)
+    private boolean failed = false;
+
+    public PreparedPSLWriter(File outputFile) throws IOException {
+        this(outputFile, null);
+    }
+
+    /**
+     * @param snapshotFile the file the binary snapshot is written to; null if no snapshot should be written
+     */
+    public PreparedPSLWriter(File outputFile, File snapshotFile) throws IOException {
+        this.outputFile = outputFile;
+        this.temporaryFile = new File(outputFile.getAbsoluteFile().getParentFile(), outputFile.getName() + ".tmp");
+        writer = new BufferedWriter(new FileWriter(temporaryFile, false));
+        snapshotWriter = snapshotFile == null ? null : new PreparedPSLSnapshot.Writer(snapshotFile);
+    }
+
+    /**
+     * appends the version to the delta chain; the versions must be written ordered by commit date asc. If the version
+     * cannot be written, close keeps the previous output file.
+     */
+    public void write(PreparedPSL preparedPSL) throws IOException {
+        try {
+            writeVersion(preparedPSL);
+        } catch (IOException | RuntimeException e) {
+            failed = true;
+            throw e;
+        }
+    }
+
+    private void writeVersion(PreparedPSL preparedPSL) throws IOException {
+        final RuleDictionary dictionary = preparedPSL.getDictionary();
+        if(entryIdsSharedByAll == null) {
+            writeHeader(preparedPSL.getEntryIdsSharedByAll(), dictionary);
+        } else {
+            writer.write(',');
+        }
+        final BitSet entryIds = preparedPSL.getEntryIds();
+        writer.write('{');
+        writeKey("commit_timestamp", true);
+        writer.write(Long.toString(preparedPSL.getCommitTimestamp()));
+        writeKey("commit_hash", false);
+        JSONObject.quote(preparedPSL.getCommitHash(), writer);
+        writeKey("removed_entries", false);
+        writeRules(preparedPSL.getRemovedEntryIds(), dictionary);
+        writeKey("added_entries", false);
+        writeRules(preparedPSL.getAddedEntryIds(), dictionary);
+        if(versionCount % KEYFRAME_INTERVAL == 0) {
+            writeKey("keyframe", false);
+            writeRules(RuleIds.difference(entryIds, entryIdsSharedByAll), dictionary);
+        } else {
+            //unlike added_entries and removed_entries these contain the tld entries too
+            writeKey("entries_added_since_previous_version", false);
+            writeRules(RuleIds.difference(entryIds, previousEntryIds), dictionary);
+            writeKey("entries_removed_since_previous_version", false);
+            writeRules(RuleIds.difference(previousEntryIds, entryIds), dictionary);
+        }
+        writeKey("equal_psls", false);
+        writeStrings(preparedPSL.getEqualPSLs());
+        writeKey("equal_without_tlds", false);
+        writeStrings(preparedPSL.getEqualWithoutTLDEntries());
+        writeKey("exception_to_wildcard_mapping", false);
+        writeMapping(preparedPSL.getExceptionToWildcardMapping());
+        writer.write('}');
+        previousEntryIds = entryIds;
+        versionCount++;
+        if(snapshotWriter != null) {
+            snapshotWriter.write(preparedPSL);
+        }
+    }
+
+    /**
+     * discards the written versions: close deletes the temporary files and keeps the previous output file and snapshot
+     */
+    public void abort() {
+        failed = true;
+    }
+
+    /**
+     * closes the versions array and the file, replaces the output file and completes the snapshot; if a version could
+     * not be written or the writer was aborted, the temporary file is deleted and the snapshot is aborted
+     */
+    @Override
+    public void close() throws IOException {
+        boolean complete = false;
+        try {
+            if(!failed) {
+                if(entryIdsSharedByAll == null) {
+                    writeHeader(new BitSet(), null);
+                }
+                writer.write("]}");
+                writer.close();
+                Files.move(temporaryFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                complete = true;
+            }
+        } finally {
+            try {
+                writer.close();
+                if(!complete) {
+                    Files.deleteIfExists(temporaryFile.toPath());
+                }
+            } finally {
+                if(snapshotWriter != null) {
+                    if(!complete) {
+                        snapshotWriter.abort();
+                    }
+                    snapshotWriter.close();
+                }
+            }
+        }
+    }
+
+    private void writeHeader(BitSet entryIdsSharedByAll, RuleDictionary dictionary) throws IOException {
+        this.entryIdsSharedByAll = entryIdsSharedByAll;
+        writer.write('{');
+        writeKey("format_version", true);
+        writer.write(Integer.toString(FORMAT_VERSION));
+        writeKey("keyframe_interval", false);
+        writer.write(Integer.toString(KEYFRAME_INTERVAL));
+        writeKey("entries_that_all_versions_have_in_common", false);
+        writeRules(entryIdsSharedByAll, dictionary);
+        writeKey("versions", false);
+        writer.write('[');
+    }
+
+    private void writeKey(String key, boolean firstKey) throws IOException {
+        if(!firstKey) {
+            writer.write(',');
+        }
+        JSONObject.quote(key, writer);
+        writer.write(':');
+    }
+
+    private void writeRules(BitSet ruleIds, RuleDictionary dictionary) throws IOException {
+        writer.write('[');
+        boolean first = true;
+        for(int id = ruleIds.nextSetBit(0); id >= 0; id = ruleIds.nextSetBit(id + 1)) {
+            if(!first) {
+                writer.write(',');
+            }
+            first = false;
+            JSONObject.quote(dictionary.getRule(id), writer);
+        }
+        writer.write(']');
+    }
+
+    private void writeRules(int[] ruleIds, RuleDictionary dictionary) throws IOException {
+        writer.write('[');
+        for(int i = 0; i<ruleIds.length; i++) {
+            if(i > 0) {
+                writer.write(',');
+            }
+            JSONObject.quote(dictionary.getRule(ruleIds[i]), writer);
+        }
+        writer.write(']');
+    }
+
+    private void writeStrings(Collection<String> strings) throws IOException {
+        writer.write('[');
+        boolean first = true;
+        for(String s: strings) {
+            if(!first) {
+                writer.write(',');
+            }
+            first = false;
+            JSONObject.quote(s, writer);
+        }
+        writer.write(']');
+    }
+
+    private void writeMapping(Map<String, String> mapping) throws IOException {
+        writer.write('{');
+        boolean first = true;
+        for(Map.Entry<String, String> entry: mapping.entrySet()) {
+            if(!first) {
+                writer.write(',');
+            }
+            first = false;
+            JSONObject.quote(entry.getKey(), writer);
+            writer.write(':');
+            JSONObject.quote(entry.getValue(), writer);
+        }
+        writer.write('}');
+    }
+}
@@ -1,6 +1,9 @@
 package web;
 
+import javax.servlet.http.Cookie;
+import model.HeapFootprint;
 import model.PreparedPSL;
+import model.RuleLifetimeIndex;
 import spark.Request;
 import spark.Response;
 import yesno.PSLYesNoGame;
@@ -9,6 +12,7 @@ import yesno.PSLYesNoGameFactory;
 import java.net.IDN;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -26,8 +30,8 @@ public class WebHandler {
     //preformed. fist the associated wildcard, then the exception itself
     private static final Queue<String> nextCheckQueue = new LinkedList<String>();
 
-    //map to keep track of the cookie values set for domains
-    private static final HashMap<String, String> issuedCookiesForDomain = new HashMap<>();
+    //map to keep track of the cookie values set for domains (written concurrently by the image requests of a batch)
+    private static final Map<String, String> issuedCookiesForDomain = new ConcurrentHashMap<>();
 
     //map to keep track of which wildcard is checked with the random domain (e.g ABsd82jg02.foo.bar -> *.foo.bar)
     private static final HashMap<String, String> wildcardDomainCheck = new HashMap<>();
@@ -37,12 +41,72 @@ public class WebHandler {
     //depending on whether the list contains !foo.bar or foo.bar
     private static final HashSet<String> inListAsException = new HashSet<>();
 
-    private static PSLYesNoGame yesNoGameInstance = PSLYesNoGameFactory.getInstance();
+    //the versions the current game was started with; a reload only affects games started afterwards
+    private static PSLYesNoGameFactory.Dataset dataset = PSLYesNoGameFactory.getDataset();
+    private static PSLYesNoGame yesNoGameInstance = PSLYesNoGameFactory.getInstance(dataset);
+
+    //number of samples checked at once by the batch test (batchpsl.test)
+    private static final int BATCH_SIZE = 4;
+    //query parameter of the setcookie/readcookie requests of a batch
+    private static final String BATCH_PARAMETER = "batch";
+    //a domain that is no public suffix; if its cookie is not sent back the browser blocks the cookies of the batch checks
+    private static final String BATCH_CONTROL_DOMAIN = "control.batchpsl.test";
+    private static final String BATCH_INCOMPLETE = "Not all checks were done. Go to <a href=\"http://batchpsl.test\">http://batchpsl.test</a> to check again.";
+
+    /**
+     * a sample of the current batch and the domains that are checked for it
+     */
+    private static class BatchCheck {
+        private final String sample;
+        //the checked domain (a random subdomain for wildcards, the domain of an exception)
+        private final String domain;
+        //for exceptions the wildcard of the exception and the domain checked for it; null otherwise
+        private final String wildcard;
+        private final String wildcardDomain;
+
+        private BatchCheck(String sample, String domain, String wildcard, String wildcardDomain) {
+            this.sample = sample;
+            this.domain = domain;
+            this.wildcard = wildcard;
+            this.wildcardDomain = wildcardDomain;
+        }
+    }
+
+    //guards the current batch (batchChecks, batchId, batchRunning); the checks are replaced as a whole
+    private static final Object batchLock = new Object();
+    //checks of the current batch (empty for the check whether the browser supports the batch test)
+    private static List<BatchCheck> batchChecks = Collections.emptyList();
+    //id of the current batch; answers of the requests of an older batch are ignored
+    private static int batchId = 0;
+    private static boolean batchRunning = false;
+    //checked domain -> true if the cookie set for the domain was sent back (reported concurrently by the image requests
+    //to readcookie.domain/?batch=<batchId>)
+    private static final Map<String, Boolean> batchCookieReceived = new ConcurrentHashMap<>();
 
     private static PreparedPSL lastResult = null;
     private static String messages = "";
 
+    private static final String HEAP_REPORT_ARGUMENT = "--heap-report";
+    //e.g. --sample-selection=information-gain (see PSLYesNoGame.SampleSelection)
+    private static final String SAMPLE_SELECTION_ARGUMENT = "--sample-selection=";
+    private static PSLYesNoGame.SampleSelection sampleSelection = PSLYesNoGame.SampleSelection.CENTER;
+
     public static void main(String[] args) {
+        for(String arg: args) {
+            if(arg.startsWith(SAMPLE_SELECTION_ARGUMENT)) {
+                final String name = arg.substring(SAMPLE_SELECTION_ARGUMENT.length()).toUpperCase(Locale.ROOT).replace('-', '_');
+                try {
+                    sampleSelection = PSLYesNoGame.SampleSelection.valueOf(name);
+                } catch (IllegalArgumentException e) {
+                    System.err.println("unknown sample selection: " + name + "; available: " + Arrays.toString(PSLYesNoGame.SampleSelection.values()));
+                    return;
+                }
+                yesNoGameInstance = PSLYesNoGameFactory.getInstance(dataset, sampleSelection);
+            }
+        }
+        if(Arrays.asList(args).contains(HEAP_REPORT_ARGUMENT)) {
+            System.out.print(buildHeapReport());
+        }
         port(8080);
         before((request, response) -> {
             System.out.println("Request-Host: " + request.url());
@@ -65,7 +129,14 @@ public class WebHandler {
             String domain = stripHostHeader(host);
             System.out.println("STRIP: " + domain);
             String cookievalue = getRandomString(COOKIE_VALUE_LENGTH);
-            setCookie(domain, response, COOKIE_KEY, cookievalue);
+            if (request.queryParams(BATCH_PARAMETER) != null) {
+                //check of a batch (requested by an image on another site, so the cookie must be allowed in cross-site
+                //requests). browsers only accept SameSite=None together with Secure, which needs https
+                setCookie(domain, response, COOKIE_KEY, cookievalue, "https".equals(request.scheme()) ? "None; Secure" : "None");
+                issuedCookiesForDomain.put(domain, cookievalue);
+                return "ok";
+            }
+            setCookie(domain, response, COOKIE_KEY, cookievalue, "Lax");
             issuedCookiesForDomain.put(domain, cookievalue);
             String nextAddress = "readcookie." + domain;
             return buildResponse(buildSiteForNextAddress(nextAddress));
@@ -73,6 +144,19 @@ public class WebHandler {
             String cookie = request.cookie(COOKIE_KEY);
             String domain = stripHostHeader(host);
             String issuedCookie = issuedCookiesForDomain.get(domain);
+            if (request.queryParams(BATCH_PARAMETER) != null) {
+                //check of a batch: only store the answer, the answers are passed to the game when all checks are done.
+                //several cookies with the same key can be sent (e.g. for foo.bar and baz.foo.bar), so all are compared
+                final Cookie[] sentCookies = request.raw().getCookies();
+                final boolean received = issuedCookie != null && sentCookies != null
+                        && Arrays.stream(sentCookies).anyMatch(c -> c.getName().equals(COOKIE_KEY) && c.getValue().equals(issuedCookie));
+                synchronized (batchLock) {
+                    if (batchRunning && String.valueOf(batchId).equals(request.queryParams(BATCH_PARAMETER))) {
+                        batchCookieReceived.put(domain.toLowerCase(), received);
+                    }
+                }
+                return "ok";
+            }
             if (issuedCookie != null) {
                 if (cookie != null) {
                     if (issuedCookie.equals(cookie)) {
@@ -126,10 +210,41 @@ public class WebHandler {
                 System.err.println("no cookie previously issued for this domain");
             }
 
+        } else if (host.equals("heappsl.test")) {
+            return buildResponse("<pre>" + buildHeapReport() + "</pre>");
+        } else if (host.equals("reloadpsl.test")) {
+            //the versions are loaded in the background; the running game is not affected
+            if (PSLYesNoGameFactory.reload()) {
+                return buildResponse("Reloading the prepared PSL versions. Tests started after the reload use the new versions.");
+            }
+            return buildResponse("The prepared PSL versions are already being reloaded.");
+        } else if (host.equals("startbatchpsl.test") || host.equals("batchpsl.test")) {
+            if (host.equals("startbatchpsl.test")) {
+                System.out.println("new instance (batch)");
+                clearAll();
+                dataset = PSLYesNoGameFactory.getDataset();
+                yesNoGameInstance = PSLYesNoGameFactory.getInstance(dataset, sampleSelection);
+                //first check with the control domain only whether the browser accepts the cookies of the batch checks
+                return buildResponse(startBatch(Collections.emptyList(), Collections.emptyList(),
+                        "Checking whether the browser supports the batch test..."));
+            } else if (!isInVerifyMode()) {
+                final String error = applyBatchResults();
+                if (error != null) {
+                    return buildResponse(error);
+                }
+            }
+            if (!isInVerifyMode()) {
+                final String batchPage = buildBatchPage();
+                if (batchPage != null) {
+                    return buildResponse(batchPage);
+                }
+            }
+            //the result is ready: it is shown and verified like in the sequential test
         } else if (host.equals("startpsl.test")) {
             System.out.println("new instance");
             clearAll();
-            yesNoGameInstance = PSLYesNoGameFactory.getInstance();
+            dataset = PSLYesNoGameFactory.getDataset();
+            yesNoGameInstance = PSLYesNoGameFactory.getInstance(dataset, sampleSelection);
         } else {
             System.out.println("boh");
             boh = true;
@@ -199,20 +314,7 @@ public class WebHandler {
                     inListAsException.add(sample.toLowerCase());
                 } else if (sample.contains("*")) {
                     //contains wildcard
-                    String withoutWildcard = sample;
-                    while (withoutWildcard.contains("*")) {
-                        String wildcardValue = getRandomString(10);
-                        int index = withoutWildcard.indexOf("*");
-                        String res = "";
-                        for (int i = 0; i < withoutWildcard.length(); i++) {
-                            if (i == index) {
-                                res = res + wildcardValue;
-                            } else {
-                                res = res + withoutWildcard.charAt(i);
-                            }
-                        }
-                        withoutWildcard = res;
-                    }
+                    String withoutWildcard = replaceWildcards(sample);
                     wildcardDomainCheck.put(withoutWildcard.toLowerCase(), sample);
                     sample = withoutWildcard;
                 }
@@ -229,6 +331,147 @@ public class WebHandler {
         }
     }
 
+    /**
+     * @return the wildcard entry with every * replaced by a random label
+     */
+    private static String replaceWildcards(String wildcard) {
+        String withoutWildcard = wildcard;
+        while (withoutWildcard.contains("*")) {
+            String wildcardValue = getRandomString(10);
+            int index = withoutWildcard.indexOf("*");
+            String res = "";
+            for (int i = 0; i < withoutWildcard.length(); i++) {
+                if (i == index) {
+                    res = res + wildcardValue;
+                } else {
+                    res = res + withoutWildcard.charAt(i);
+                }
+            }
+            withoutWildcard = res;
+        }
+        return withoutWildcard;
+    }
+
+    /**
+     * Gets the next samples from the game and builds the page that checks all of them at once: for every domain an image
+     * request to setcookie.domain sets a cookie, then an image request to readcookie.domain reports whether the cookie
+     * was sent back. When all checks are done the page goes back to batchpsl.test, which passes the answers to the game.
+     * @return the page or null if the result is ready
+     */
+    private static String buildBatchPage() {
+        final List<BatchCheck> checks = new ArrayList<>();
+        final List<String> domains = new ArrayList<>();
+        final List<PSLYesNoGame.SampleResult> samples = yesNoGameInstance.getNextSamples(BATCH_SIZE);
+        if (!samples.get(0).isSample()) {
+            return null;
+        }
+        for (PSLYesNoGame.SampleResult nextSample : samples) {
+            final String sample = nextSample.getSample();
+            System.out.println("\tsample: " + sample);
+            final BatchCheck check;
+            if (sample.startsWith("!")) {
+                //exception: the wildcard is checked together with the exception
+                final String wildcard = nextSample.getWildcardForException(sample);
+                if (wildcard == null) {
+                    System.err.println("no wildcard found for: " + sample);
+                    continue;
+                }
+                check = new BatchCheck(sample, sample.substring(1).toLowerCase(), wildcard, replaceWildcards(wildcard).toLowerCase());
+                domains.add(check.wildcardDomain);
+            } else {
+                check = new BatchCheck(sample, replaceWildcards(sample).toLowerCase(), null, null);
+            }
+            checks.add(check);
+            domains.add(check.domain);
+        }
+        if (checks.isEmpty()) {
+            return "no wildcard for exception found";
+        }
+        System.out.println("\tcheckfor: " + domains);
+        return startBatch(checks, domains, "Checking " + checks.size() + " entries at once...");
+    }
+
+    /**
+     * makes the checks the current batch and builds the page that checks the domains (and the control domain)
+     */
+    private static String startBatch(List<BatchCheck> checks, List<String> domains, String text) {
+        final List<String> checkedDomains = new ArrayList<>();
+        checkedDomains.add(BATCH_CONTROL_DOMAIN);
+        checkedDomains.addAll(domains);
+        final int id;
+        synchronized (batchLock) {
+            batchChecks = checks;
+            id = ++batchId;
+            batchRunning = true;
+            batchCookieReceived.clear();
+        }
+        final String batchParameter = BATCH_PARAMETER + "=" + id;
+        return text +
+                "<script>" +
+                    "var domains = [" + checkedDomains.stream().map(domain -> "\"" + domain + "\"").collect(Collectors.joining(",")) + "];" +
+                    "function load(prefix, done) {" +
+                        "var left = domains.length;" +
+                        "domains.forEach(function(domain) {" +
+                            "var img = new Image();" +
+                            "img.onload = img.onerror = function() { if (--left == 0) { done(); } };" +
+                            "img.src = location.protocol + \"//\" + prefix + domain + \"/?" + batchParameter + "\";" +
+                        "});" +
+                    "}" +
+                    "load(\"setcookie.\", function() { load(\"readcookie.\", function() { window.location.href = location.protocol + \"//batchpsl.test\"; }); });" +
+                "</script>";
+    }
+
+    /**
+     * passes the answers to the checks of the current batch to the game (like setCookieCheckResult for every check)
+     * @return an error message if the browser did not accept the cookies or not all checks are done; null otherwise
+     */
+    private static String applyBatchResults() {
+        final List<BatchCheck> checks;
+        final Map<String, Boolean> cookieReceived;
+        synchronized (batchLock) {
+            if (!batchRunning) {
+                return null;
+            }
+            checks = batchChecks;
+            cookieReceived = new HashMap<>(batchCookieReceived);
+            batchChecks = Collections.emptyList();
+            batchRunning = false;
+            batchCookieReceived.clear();
+        }
+        if (!Boolean.TRUE.equals(cookieReceived.get(BATCH_CONTROL_DOMAIN))) {
+            return "The browser did not accept the cookies of the batch test. They are set by image requests to other "
+                    + "sites, so they need SameSite=None, which browsers only accept over https (and not at all if "
+                    + "third-party cookies are blocked). Go to <a href=\"http://startpsl.test\">http://startpsl.test</a> "
+                    + "to check the entries one after another.";
+        }
+        final Map<String, Boolean> results = new LinkedHashMap<>();
+        for (BatchCheck check : checks) {
+            if (check.wildcard != null) {
+                final Boolean gotWildcardCookie = cookieReceived.get(check.wildcardDomain);
+                if (gotWildcardCookie == null) {
+                    return BATCH_INCOMPLETE;
+                }
+                //got no cookie -> the wildcard is in the psl
+                results.put(check.wildcard, !gotWildcardCookie);
+                if (gotWildcardCookie) {
+                    //the wildcard is not in the psl, so there can be no exception
+                    continue;
+                }
+            }
+            final Boolean gotCookie = cookieReceived.get(check.domain);
+            if (gotCookie == null) {
+                return BATCH_INCOMPLETE;
+            }
+            //got no cookie -> domain is in the psl (exception: got cookie -> the exception is in the psl)
+            results.put(check.sample, check.sample.startsWith("!") == gotCookie);
+        }
+        if (!results.isEmpty()) {
+            System.out.println("\tsetResults(" + results + ")");
+            yesNoGameInstance.setResults(results);
+        }
+        return null;
+    }
+
     private static String buildSiteForNextAddress(String nextAddress) {
         return "<a href=\"http://" + nextAddress + "\">" + nextAddress + "</a><script>setTimeout(function(){ window.location.href = \"http://" + nextAddress + "\"; }, 1);</script>";
     }
@@ -236,6 +479,11 @@ public class WebHandler {
 
     private static void clearAll(){
         issuedCookiesForDomain.clear();
+        synchronized (batchLock) {
+            batchChecks = Collections.emptyList();
+            batchRunning = false;
+            batchCookieReceived.clear();
+        }
         wildcardDomainCheck.clear();
         nextCheckQueue.clear();
         inListAsException.clear();
@@ -283,9 +531,51 @@ public class WebHandler {
             yesNoGameInstance.setResult(domain, isInPSL);
         } else {
             if(!isInPSL) {
-                addMessageToResponse(domain+ " is not in the PSL!!!");
+                addMessageToResponse(domain+ " is not in the PSL!!!" + describeLifetime(domain));
+            }
+        }
+    }
+
+    /**
+     * @return the periods in which the entry was part of the psl versions (empty if unknown)
+     */
+    private static String describeLifetime(String entry) {
+        if(dataset == null) {
+            return "";
+        }
+        final RuleLifetimeIndex index = dataset.getRuleLifetimeIndex();
+        final int[] intervals = index.getIntervals(index.getDictionary().getId(entry));
+        if(intervals.length == 0) {
+            return "";
+        }
+        final List<String> periods = new ArrayList<>();
+        for(int i = 0; i<intervals.length; i += 2) {
+            periods.add(SDF.format(new Date(index.getCommitTimestamp(intervals[i]))) + " - "
+                    + SDF.format(new Date(index.getCommitTimestamp(intervals[i + 1] - 1))));
+        }
+        return " (part of the versions " + String.join(", ", periods) + ")";
+    }
+
+    /**
+     * @return the estimated heap footprint of the current versions, of a new game and of the running game
+     */
+    private static String buildHeapReport() {
+        final PSLYesNoGameFactory.Dataset current = PSLYesNoGameFactory.getDataset();
+        if(current == null) {
+            return "no versions loaded\n";
+        }
+        final HeapFootprint footprint = PSLYesNoGameFactory.estimateHeapFootprint(current);
+        if(yesNoGameInstance != null) {
+            footprint.add("running game", yesNoGameInstance, yesNoGameInstance.estimateHeapBytes());
+            if(dataset != null && dataset != current) {
+                //the running game was started before a reload; structures shared with the current versions are not counted again
+                footprint.addVersions(dataset.getPreparedPSLs(), "previous versions (running game): ");
             }
         }
+        final Runtime runtime = Runtime.getRuntime();
+        return "estimated heap footprint:\n" + footprint
+                + "jvm heap used: " + HeapFootprint.format(runtime.totalMemory() - runtime.freeMemory())
+                + " (max " + HeapFootprint.format(runtime.maxMemory()) + ")\n";
     }
 
     private static String buildResponse(String bodycontent){
@@ -322,10 +612,10 @@ public class WebHandler {
         return domain;
     }
 
-    private static void setCookie(String domain, Response response, String key, String value) {
+    private static void setCookie(String domain, Response response, String key, String value, String sameSite) {
         //set cookie for remaining host
         // response.header("Set-Cookie",key+"="+value+"; SameSite=Lax; max-age=31536000; domain="+domain);
-        response.header("Set-Cookie", key + "=" + value + "; SameSite=Lax; max-age=31536000; domain=" + domain);
+        response.header("Set-Cookie", key + "=" + value + "; SameSite=" + sameSite + "; max-age=31536000; domain=" + domain);
     }
 
     private static String getRandomString(int size) {
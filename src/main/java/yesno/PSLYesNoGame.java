@@ -1,58 +1,150 @@
 package yesno;
 
+import model.HeapFootprint;
 import model.PreparedPSL;
+import model.RuleDictionary;
+import model.RuleIds;
+import model.RuleLifetimeIndex;
 
 import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.function.Predicate;
 
 public class PSLYesNoGame {
-   // private final List<PreparedPSL> completePerparedPSLList;
-    private final List<PreparedPSL> preparedPSLList;
-    private final HashSet<String> alreadyUsedEntries;
 
     /**
-     * The list and the preparedpsl objects will be altered and cannot be used anymore after passed to this constructor!!
-     * @param preparedPSLList
+     * how the entry to check next is chosen
      */
-    public PSLYesNoGame(List<PreparedPSL> preparedPSLList) {
-        this.preparedPSLList = preparedPSLList;
-        /*
-        completePerparedPSLList = new ArrayList<>(preparedPSLList.size());
-        for(PreparedPSL preparedPSL: preparedPSLList) {
-            completePerparedPSLList.add(preparedPSL.copy());
-        }*/
-        alreadyUsedEntries = new HashSet<>();
+    public enum SampleSelection {
+        /**
+         * the entry that is added/removed the least among the entries added/removed in a version about in the middle of
+         * the remaining versions
+         */
+        CENTER,
+        /**
+         * the entry that splits the remaining versions most evenly (so about half of them are removed by the answer)
+         */
+        INFORMATION_GAIN,
+        /**
+         * like INFORMATION_GAIN, but versions that only differ in tld entries (which cannot be checked) count as one
+         */
+        INFORMATION_GAIN_BY_EQUIVALENCE_CLASS
     }
 
+    //all versions ordered by commit date asc; shared by all games and never modified
+    private final List<PreparedPSL> preparedPSLs;
+    private final RuleDictionary dictionary;
+    //indexes (in preparedPSLs) of the versions that are still possible
+    private final BitSet remaining;
+    //added/removed entries of a remaining version relative to the previous remaining version (indexed like
+    //preparedPSLs); null as long as the added/removed entries of the stored version apply
+    private final int[][] addedEntryIds;
+    private final int[][] removedEntryIds;
+    //rule ids of the entries that were already used as sample
+    private final BitSet alreadyUsedEntryIds;
+    //rule id -> in how many remaining versions the entry is added/removed; counted when the first sample is requested
+    //and updated whenever a version is removed or its added/removed entries change (null until then)
+    private int[] addedCount = null;
+    private int[] removedCount = null;
+    private final SampleSelection sampleSelection;
+    //lifetime index of the rules of preparedPSLs; only used by the information gain selections
+    private final RuleLifetimeIndex ruleLifetimeIndex;
+    //version index -> class of the version: versions that only differ in tld entries have the same class (the index of
+    //the first version of the class); null until needed
+    private int[] equivalenceClasses = null;
+
+    /**
+     * The game only keeps its own state (the remaining versions, the used entries and the added/removed entries that
+     * differ from the stored ones), so one list of versions can be shared by all games.
+     * @param preparedPSLs the versions ordered by commit date asc; neither the list nor the versions are modified
+     */
+    public PSLYesNoGame(List<PreparedPSL> preparedPSLs) {
+        this(preparedPSLs, null, SampleSelection.CENTER);
+    }
+
+    /**
+     * @param preparedPSLs the versions ordered by commit date asc; neither the list nor the versions are modified
+     * @param ruleLifetimeIndex the index of the versions; required for the information gain selections
+     */
+    public PSLYesNoGame(List<PreparedPSL> preparedPSLs, RuleLifetimeIndex ruleLifetimeIndex, SampleSelection sampleSelection) {
+        if(sampleSelection != SampleSelection.CENTER && ruleLifetimeIndex == null) {
+            throw new IllegalArgumentException(sampleSelection + " needs the rule lifetime index of the versions");
+        }
+        this.preparedPSLs = preparedPSLs;
+        this.ruleLifetimeIndex = ruleLifetimeIndex;
+        this.sampleSelection = sampleSelection;
+        //all versions share one dictionary
+        dictionary = preparedPSLs.isEmpty() ? new RuleDictionary() : preparedPSLs.get(0).getDictionary();
+        remaining = new BitSet(preparedPSLs.size());
+        remaining.set(0, preparedPSLs.size());
+        addedEntryIds = new int[preparedPSLs.size()][];
+        removedEntryIds = new int[preparedPSLs.size()][];
+        alreadyUsedEntryIds = new BitSet();
+    }
+
+    /**
+     * @return the remaining versions ordered by commit date asc
+     */
     private List<PreparedPSL> getRemainingList(){
-        return preparedPSLList;
+        final List<PreparedPSL> remainingList = new ArrayList<>(remaining.cardinality());
+        for(int index = remaining.nextSetBit(0); index >= 0; index = remaining.nextSetBit(index + 1)) {
+            remainingList.add(preparedPSLs.get(index));
+        }
+        return remainingList;
+    }
+
+    /**
+     * @return the indexes of the remaining versions (ascending)
+     */
+    private int[] getRemainingIndexes() {
+        return remaining.stream().toArray();
+    }
+
+    /**
+     * @return the entries added in the version (relative to the previous remaining version)
+     */
+    int[] getAddedEntryIds(int index) {
+        return addedEntryIds[index] != null ? addedEntryIds[index] : preparedPSLs.get(index).getAddedEntryIds();
+    }
+
+    /**
+     * @return the entries removed in the version (relative to the previous remaining version)
+     */
+    int[] getRemovedEntryIds(int index) {
+        return removedEntryIds[index] != null ? removedEntryIds[index] : preparedPSLs.get(index).getRemovedEntryIds();
     }
 
+    /**
+     * @throws IllegalStateException if the result is not ready but no remaining version has an unused entry (the message
+     * lists the remaining versions)
+     */
     public SampleResult getNextSample() {
-        for(PreparedPSL pls: preparedPSLList) {
-          //  System.out.println(">>"+pls.toStringComplete());
-        }
         if(clearResultReady()) {
             return new SampleResult(false, true, true, null, null);
         }else if(ambiguousResultReady()) {
             return new SampleResult(false, true, false,null, null);
         } else {
+            if(sampleSelection != SampleSelection.CENTER) {
+                final SampleResult sampleResult = getMostEvenlySplittingSample();
+                if(sampleResult != null) {
+                    return sampleResult;
+                }
+                //no entry that splits the remaining versions left; fall back to the center selection
+            }
             //results not ready. so there must be more than one and at least two distinct psl versions int the list
-            if(preparedPSLList.size() > 0) {
-                int centerIndex = (int) (preparedPSLList.size() / 2.0);
+            final int[] remainingIndexes = getRemainingIndexes();
+            if(remainingIndexes.length > 0) {
+                int centerIndex = (int) (remainingIndexes.length / 2.0);
                 //find a pls that is about in the center of the list and has addedEntries and/or removedEntries
                 PreparedPSL preparedPSL = null;
-                List<String> preparedPSL_cleaned_added_list = null;
-                List<String> preparedPSL_cleaned_removed_list = null;
+                int preparedPSLIndex = -1;
                 boolean pslFound = false;
-                for(int i = 0; i < preparedPSLList.size(); i++) { //count until preparedPSLList.size() as this is certainly an upper bound (but not the smallest)
-                    if(centerIndex + i < preparedPSLList.size()) {
+                for(int i = 0; i < remainingIndexes.length; i++) { //count until remainingIndexes.length as this is certainly an upper bound (but not the smallest)
+                    if(centerIndex + i < remainingIndexes.length) {
                         //check if the next would be ok
-                        preparedPSL = preparedPSLList.get(centerIndex + i);
-                        preparedPSL_cleaned_added_list = preparedPSL.getAddedEntries().stream().filter(s -> !alreadyUsedEntries.contains(s)).collect(Collectors.toList());
-                        preparedPSL_cleaned_removed_list = preparedPSL.getRemovedEntries().stream().filter(s -> !alreadyUsedEntries.contains(s)).collect(Collectors.toList());
-                        if(preparedPSL_cleaned_added_list.size() > 0  || preparedPSL_cleaned_removed_list.size() > 0) {
+                        preparedPSLIndex = remainingIndexes[centerIndex + i];
+                        preparedPSL = preparedPSLs.get(preparedPSLIndex);
+                        if(hasUnusedEntry(getAddedEntryIds(preparedPSLIndex)) || hasUnusedEntry(getRemovedEntryIds(preparedPSLIndex))) {
                             //the psl version "preparedPSL" can be used to determine the next sample to check.
                             pslFound = true;
                             break;
@@ -60,10 +152,9 @@ public class PSLYesNoGame {
                     }
                     if(centerIndex-i >= 0) {
                         //check if previous would be ok
-                        preparedPSL = preparedPSLList.get(centerIndex - i);
-                        preparedPSL_cleaned_added_list = preparedPSL.getAddedEntries().stream().filter(s -> !alreadyUsedEntries.contains(s)).collect(Collectors.toList());
-                        preparedPSL_cleaned_removed_list = preparedPSL.getRemovedEntries().stream().filter(s -> !alreadyUsedEntries.contains(s)).collect(Collectors.toList());
-                        if(preparedPSL_cleaned_added_list.size() > 0  || preparedPSL_cleaned_removed_list.size() > 0) {
+                        preparedPSLIndex = remainingIndexes[centerIndex - i];
+                        preparedPSL = preparedPSLs.get(preparedPSLIndex);
+                        if(hasUnusedEntry(getAddedEntryIds(preparedPSLIndex)) || hasUnusedEntry(getRemovedEntryIds(preparedPSLIndex))) {
                             //the psl version "preparedPSL" can be used to determine the next sample to check.
                             pslFound = true;
                             break;
@@ -71,18 +162,17 @@ public class PSLYesNoGame {
                     }
                 }
                 if(!pslFound) {
-                    System.out.println("xxxxx");
-                    System.out.println("centerIndex: " + centerIndex);
-                    for(PreparedPSL pp: preparedPSLList) {
-                        System.out.println(pp.toJsonObject().toString());
-                        System.out.println("\t+"+String.join(",", pp.getAddedEntries()));
-                        System.out.println("\t+" + String.join(",", pp.getAddedEntries().stream().filter(s -> !alreadyUsedEntries.contains(s)).collect(Collectors.toList())));
-
-                        System.out.println("\t-"+String.join(",", pp.getRemovedEntries()));
-                        System.out.println("\t-" + String.join(",", pp.getRemovedEntries().stream().filter(s -> !alreadyUsedEntries.contains(s)).collect(Collectors.toList())));
+                    //no remaining version has an unused entry although the result is not ready; only this game is
+                    //affected, so fail the request instead of stopping the server
+                    final StringBuilder state = new StringBuilder("no version with an unused entry found (centerIndex: " + centerIndex + ")");
+                    for(int index: remainingIndexes) {
+                        state.append('\n').append(preparedPSLs.get(index).toJsonObject().toString());
+                        state.append("\n\t+").append(String.join(",", dictionary.toRuleList(getAddedEntryIds(index))));
+                        state.append("\n\t+").append(String.join(",", dictionary.toRuleList(withoutAlreadyUsedEntries(getAddedEntryIds(index)))));
+                        state.append("\n\t-").append(String.join(",", dictionary.toRuleList(getRemovedEntryIds(index))));
+                        state.append("\n\t-").append(String.join(",", dictionary.toRuleList(withoutAlreadyUsedEntries(getRemovedEntryIds(index)))));
                     }
-
-                    System.exit(0);
+                    throw new IllegalStateException(state.toString());
                 } else {
                    // System.out.println("use psl: "+preparedPSL.getCommitHash());
                    // System.out.println(preparedPSL.toStringComplete());
@@ -98,26 +188,8 @@ public class PSLYesNoGame {
                 //now find the "best" entry to check for (that is one that is only present in about the half of all lists)
 
                 //find out in how may psl versions each entry is added/removed
-                HashMap<String, Integer> addedCount = new HashMap<>();
-                HashMap<String, Integer> removedCount = new HashMap<>();
-                for(PreparedPSL prepPsl: preparedPSLList) {
-                    for(String addedEntry: prepPsl.getAddedEntries()) {
-                        Integer integer = addedCount.get(addedEntry);
-                        if(integer == null) {
-                            addedCount.put(addedEntry,1);
-                        } else {
-                            addedCount.put(addedEntry, integer+1);
-                        }
-                    }
-                    for(String removedEntry: prepPsl.getRemovedEntries()) {
-                        Integer integer = removedCount.get(removedEntry);
-                        if(integer == null) {
-                            removedCount.put(removedEntry, 1);
-                        } else {
-                            removedCount.put(removedEntry, integer+1);
-                        }
-                    }
-                }
+                //(indexed by rule id; only counted once, afterwards the counts are updated by setResult)
+                countEntries();
 
                 //find the entry of preparedPSL that is added/removed the least
                 String leastAddedEntry = null;
@@ -125,19 +197,17 @@ public class PSLYesNoGame {
                 int leastAddedEntryCount = Integer.MAX_VALUE;
                 int leastRemovedEntryCount = Integer.MAX_VALUE;
 
-                for(String addedEntry: preparedPSL_cleaned_added_list) {
-                    Integer integer = addedCount.get(addedEntry);
-                    if(integer<leastAddedEntryCount) {
-                        leastAddedEntry = addedEntry;
-                        leastAddedEntryCount = integer;
+                for(int addedEntryId: getAddedEntryIds(preparedPSLIndex)) {
+                    if(!alreadyUsedEntryIds.get(addedEntryId) && addedCount[addedEntryId]<leastAddedEntryCount) {
+                        leastAddedEntry = dictionary.getRule(addedEntryId);
+                        leastAddedEntryCount = addedCount[addedEntryId];
                     }
                 }
 
-                for(String removedEntry: preparedPSL_cleaned_removed_list) {
-                    Integer integer = removedCount.get(removedEntry);
-                    if(integer < leastRemovedEntryCount) {
-                        leastRemovedEntry = removedEntry;
-                        leastRemovedEntryCount = integer;
+                for(int removedEntryId: getRemovedEntryIds(preparedPSLIndex)) {
+                    if(!alreadyUsedEntryIds.get(removedEntryId) && removedCount[removedEntryId] < leastRemovedEntryCount) {
+                        leastRemovedEntry = dictionary.getRule(removedEntryId);
+                        leastRemovedEntryCount = removedCount[removedEntryId];
                     }
                 }
 
@@ -147,7 +217,7 @@ public class PSLYesNoGame {
                     //as preparedPSL should be passed the previous version since eventual matching
                     // wildcards for exception are more likely to be in there
                   //  System.out.println("leastRemoved");
-                    return new SampleResult(true, false, false, leastRemovedEntry, getPreviousPreparedPSL(preparedPSL));
+                    return new SampleResult(true, false, false, leastRemovedEntry, getPreviousPreparedPSL(preparedPSLIndex));
                 } else {
                //     System.out.println("leastAdded");
                     return new SampleResult(true, false, false, leastAddedEntry, preparedPSL);
@@ -163,36 +233,252 @@ public class PSLYesNoGame {
     }
 
     /**
-     *
-     * @param preparedPSL
-     * //TODO: change description? (its now using preparesPSLList instead of the completePrepatedPSLList
-     * @return the PreparedPSL of the PSL version that was releases just before the one specifies in the preparedPSL
-     * argument, null if there is no previous or the one specified does not exist
+     * @return in how many remaining versions the entry is added (relative to the previous remaining version)
+     */
+    int getAddedCount(int ruleId) {
+        countEntries();
+        return addedCount[ruleId];
+    }
+
+    /**
+     * @return in how many remaining versions the entry is removed (relative to the previous remaining version)
+     */
+    int getRemovedCount(int ruleId) {
+        countEntries();
+        return removedCount[ruleId];
+    }
+
+    /**
+     * counts in how many remaining versions each entry is added/removed (if not counted yet)
+     */
+    private void countEntries() {
+        if(addedCount == null) {
+            addedCount = new int[dictionary.size()];
+            removedCount = new int[dictionary.size()];
+            for(int index = remaining.nextSetBit(0); index >= 0; index = remaining.nextSetBit(index + 1)) {
+                count(getAddedEntryIds(index), addedCount, 1);
+                count(getRemovedEntryIds(index), removedCount, 1);
+            }
+        }
+    }
+
+    /**
+     * Scores every entry that is added/removed in a remaining version (and not used yet) by the number of remaining
+     * versions on the smaller side of the split its answer causes, and returns the entry with the highest score. The
+     * versions containing an entry are counted with the intervals of the rule lifetime index.
+     * @return the sample or null if no entry splits the remaining versions
+     */
+    private SampleResult getMostEvenlySplittingSample() {
+        countEntries();
+        final BitSet versions = getVersionsToSplit();
+        final long[] versionWords = versions.toLongArray();
+        final int versionCount = versions.cardinality();
+        int bestRuleId = -1;
+        int bestScore = 0;
+        for(int ruleId = 0; ruleId<addedCount.length && bestScore < versionCount / 2; ruleId++) {
+            if((addedCount[ruleId] > 0 || removedCount[ruleId] > 0) && !alreadyUsedEntryIds.get(ruleId)) {
+                final int containing = ruleLifetimeIndex.countVersionsContaining(ruleId, versionWords);
+                final int score = Math.min(containing, versionCount - containing);
+                if(score > bestScore) {
+                    bestRuleId = ruleId;
+                    bestScore = score;
+                }
+            }
+        }
+        return bestRuleId < 0 ? null : toSampleResult(bestRuleId);
+    }
+
+    /**
+     * @return the remaining versions the information gain selections split (one per equivalence class if the versions
+     * of a class count as one)
+     */
+    private BitSet getVersionsToSplit() {
+        if(sampleSelection != SampleSelection.INFORMATION_GAIN_BY_EQUIVALENCE_CLASS) {
+            return (BitSet) remaining.clone();
+        }
+        //the first remaining version of every class represents the class. It is chosen again in every round, so a
+        //class is counted once as long as any of its versions remains, even if the version that represented it
+        //before was removed (e.g. by a wildcard that only some versions of the class have)
+        final int[] classes = getEquivalenceClasses();
+        final BitSet versions = new BitSet(preparedPSLs.size());
+        final BitSet countedClasses = new BitSet(preparedPSLs.size());
+        for(int index = remaining.nextSetBit(0); index >= 0; index = remaining.nextSetBit(index + 1)) {
+            if(!countedClasses.get(classes[index])) {
+                countedClasses.set(classes[index]);
+                versions.set(index);
+            }
+        }
+        return versions;
+    }
+
+    /**
+     * @return the sample for the entry with a remaining version that contains it (needed to find the wildcard of an
+     * exception); null if no remaining version contains the entry
      */
-    private PreparedPSL getPreviousPreparedPSL(PreparedPSL preparedPSL) {
-        PreparedPSL previous = null;
-        boolean found = false;
-        for(PreparedPSL prepPSL: preparedPSLList) {
-            if(prepPSL.getCommitHash().equals(preparedPSL.getCommitHash())) {
-                found = true;
+    private SampleResult toSampleResult(int ruleId) {
+        final int[] intervals = ruleLifetimeIndex.getIntervals(ruleId);
+        for(int i = 0; i<intervals.length; i += 2) {
+            final int index = remaining.nextSetBit(intervals[i]);
+            if(index >= 0 && index < intervals[i + 1]) {
+                return new SampleResult(true, false, false, dictionary.getRule(ruleId), preparedPSLs.get(index));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Chooses up to count entries that are checked together, so the answers to all of them can be passed to setResults
+     * at once. The first entry is the one getNextSample returns; every further entry is the one that splits the groups
+     * of remaining versions the previous entries separate (versions with the same answers to all previous entries)
+     * most evenly, so the entries do not repeat the split of another entry. Fewer entries are returned if no further
+     * entry splits a group.
+     * @return the samples, or the single result of getNextSample if it is no sample (result ready or error)
+     */
+    public List<SampleResult> getNextSamples(int count) {
+        final List<SampleResult> samples = new ArrayList<>();
+        final SampleResult first = getNextSample();
+        samples.add(first);
+        if(!first.isSample() || ruleLifetimeIndex == null) {
+            return samples;
+        }
+        final BitSet chosen = new BitSet();
+        //the groups of versions with the same answers to the chosen entries
+        List<BitSet> groups = new ArrayList<>();
+        groups.add(getVersionsToSplit());
+        int ruleId = dictionary.getId(first.getSample());
+        while(true) {
+            chosen.set(ruleId);
+            final BitSet containing = ruleLifetimeIndex.getVersionsContaining(ruleId);
+            final List<BitSet> splitGroups = new ArrayList<>(groups.size() * 2);
+            for(BitSet group: groups) {
+                final BitSet in = (BitSet) group.clone();
+                in.and(containing);
+                final BitSet out = (BitSet) group.clone();
+                out.andNot(containing);
+                for(BitSet splitGroup: new BitSet[]{in, out}) {
+                    //a group of one version cannot be split any further
+                    if(splitGroup.cardinality() > 1) {
+                        splitGroups.add(splitGroup);
+                    }
+                }
+            }
+            groups = splitGroups;
+            if(samples.size() >= count || groups.isEmpty()) {
+                break;
+            }
+            final long[][] groupWords = new long[groups.size()][];
+            final int[] groupSizes = new int[groups.size()];
+            for(int i = 0; i<groups.size(); i++) {
+                groupWords[i] = groups.get(i).toLongArray();
+                groupSizes[i] = groups.get(i).cardinality();
+            }
+            int bestRuleId = -1;
+            int bestScore = 0;
+            for(int candidate = 0; candidate<addedCount.length; candidate++) {
+                if((addedCount[candidate] > 0 || removedCount[candidate] > 0) && !alreadyUsedEntryIds.get(candidate) && !chosen.get(candidate)) {
+                    int score = 0;
+                    for(int i = 0; i<groupWords.length; i++) {
+                        final int containingInGroup = ruleLifetimeIndex.countVersionsContaining(candidate, groupWords[i]);
+                        score += Math.min(containingInGroup, groupSizes[i] - containingInGroup);
+                    }
+                    if(score > bestScore) {
+                        bestRuleId = candidate;
+                        bestScore = score;
+                    }
+                }
+            }
+            final SampleResult next = bestRuleId < 0 ? null : toSampleResult(bestRuleId);
+            if(next == null) {
                 break;
             }
-            previous = prepPSL;
+            samples.add(next);
+            ruleId = bestRuleId;
         }
-        if(found) {
-            return previous;
-        } else {
-            return null;
+        return samples;
+    }
+
+    /**
+     * @return version index -> the index of the first version that is equal to it except for tld entries (the version
+     * itself if there is none before it)
+     */
+    private int[] getEquivalenceClasses() {
+        if(equivalenceClasses == null) {
+            final Map<String, Integer> indexByCommitHash = new HashMap<>();
+            for(int index = 0; index<preparedPSLs.size(); index++) {
+                indexByCommitHash.put(preparedPSLs.get(index).getCommitHash(), index);
+            }
+            equivalenceClasses = new int[preparedPSLs.size()];
+            for(int index = 0; index<preparedPSLs.size(); index++) {
+                equivalenceClasses[index] = index;
+                for(String equal: preparedPSLs.get(index).getEqualWithoutTLDEntries()) {
+                    final Integer equalIndex = indexByCommitHash.get(equal);
+                    if(equalIndex != null && equalIndex < equivalenceClasses[index]) {
+                        equivalenceClasses[index] = equalIndex;
+                    }
+                }
+            }
+        }
+        return equivalenceClasses;
+    }
+
+    /**
+     * @return the rule ids that were not used as sample yet
+     */
+    private int[] withoutAlreadyUsedEntries(int[] ruleIds) {
+        return RuleIds.filter(ruleIds, id -> !alreadyUsedEntryIds.get(id));
+    }
+
+    /**
+     * @return true if one of the rule ids was not used as sample yet
+     */
+    private boolean hasUnusedEntry(int[] ruleIds) {
+        for(int ruleId: ruleIds) {
+            if(!alreadyUsedEntryIds.get(ruleId)) {
+                return true;
+            }
         }
+        return false;
+    }
+
+    private static void count(int[] ruleIds, int[] counts, int delta) {
+        for(int ruleId: ruleIds) {
+            counts[ruleId] += delta;
+        }
+    }
+
+    /**
+     * replaces the added/removed entries of a remaining version and updates the counts
+     */
+    private void setEntryIds(int index, int[] added, int[] removed) {
+        if(addedCount != null) {
+            count(getAddedEntryIds(index), addedCount, -1);
+            count(getRemovedEntryIds(index), removedCount, -1);
+            count(added, addedCount, 1);
+            count(removed, removedCount, 1);
+        }
+        addedEntryIds[index] = added;
+        removedEntryIds[index] = removed;
+    }
+
+    /**
+     *
+     * @param index the index of a remaining version
+     * @return the PreparedPSL of the remaining PSL version that was releases just before the one specified by the index,
+     * null if there is no previous
+     */
+    private PreparedPSL getPreviousPreparedPSL(int index) {
+        final int previous = index > 0 ? remaining.previousSetBit(index - 1) : -1;
+        return previous >= 0 ? preparedPSLs.get(previous) : null;
     }
     private int getRemainingPSLs() {
-        return preparedPSLList.size();
+        return remaining.cardinality();
     }
 
     /**
      * @return true if either one list remaining or a set of equal ones
      */
     private boolean clearResultReady() {
+        final List<PreparedPSL> preparedPSLList = getRemainingList();
         //if only one left
         if(preparedPSLList.size() == 1) {
             return true;
@@ -226,6 +512,7 @@ public class PSLYesNoGame {
      * @return true if either one list remaining or a set of equal ones without considering the tlds
      */
     private boolean ambiguousResultReady() {
+        final List<PreparedPSL> preparedPSLList = getRemainingList();
         //if only one left
         if(preparedPSLList.size() == 1) {
             return true;
@@ -257,25 +544,52 @@ public class PSLYesNoGame {
 
 
     public void setResult(String sample, boolean isInTheSearchedList) {
-        alreadyUsedEntries.add(sample);
+        determineRelativeChanges(removeContradictingVersions(sample, isInTheSearchedList));
+    }
+
+    /**
+     * applies the answers to several samples at once (see getNextSamples); same as calling setResult for every sample
+     * @param results sample -> isInTheSearchedList
+     */
+    public void setResults(Map<String, Boolean> results) {
+        final BitSet removed = new BitSet();
+        results.forEach((sample, isInTheSearchedList) -> removed.or(removeContradictingVersions(sample, isInTheSearchedList)));
+        determineRelativeChanges(removed);
+    }
+
+    /**
+     * marks the sample as used and removes the versions that contradict the answer
+     * @return the indexes of the removed versions
+     */
+    private BitSet removeContradictingVersions(String sample, boolean isInTheSearchedList) {
+        //the sample and its wildcard are looked up once instead of once per version (-1 if not part of any version)
+        final int sampleId = dictionary.getId(sample);
+        final int wildcardOfSampleId = dictionary.getId("*."+sample);
+        final int sampleLabelCount = sample.split("\\.").length;
+        if(sampleId >= 0) {
+            alreadyUsedEntryIds.set(sampleId);
+        }
+        final BitSet removed;
         if(isInStrictMode()) {
-            preparedPSLList.removeIf(preparedPSL -> preparedPSL.containsEntry(sample) != isInTheSearchedList);
+            removed = removeRemainingIf(preparedPSL -> containsEntry(preparedPSL, sampleId) != isInTheSearchedList);
         } else {
-            preparedPSLList.removeIf(preparedPSL -> {
-                if(preparedPSL.containsEntry(sample) != isInTheSearchedList) {
+            removed = removeRemainingIf(preparedPSL -> {
+                if(containsEntry(preparedPSL, sampleId) != isInTheSearchedList) {
                     //in strict mode it would be removed; check if this is justified in non-strict mode too
                     if(isInTheSearchedList){
                         //we only care if isInTheSearchedList is true because if it is false every version that contains
                         //the entry would be removed. We do not care because if we are less strict in this case we would
                         //only remove more versions which is not necessary. With lessStrictMode we want to ensure that
                         //we do not remove versions that could be possible.
-                        if(preparedPSL.containsEntry("*."+sample)){
+                        if(containsEntry(preparedPSL, wildcardOfSampleId)){
                             //*.sample is in the list. we do not remove this version
                             return false;
                         } else {
                             //check if maybe there is a wildcard entry in this version that matches the sample
-                            for(String wildcard: preparedPSL.getWildcards()) {
-                                if(wildcardMatchesDomain(wildcard,sample)) {
+                            for(int wildcardId: preparedPSL.getWildcardIds()) {
+                                //the levels of wildcard and sample must match; checked before splitting the wildcard
+                                if(dictionary.getLabelCount(wildcardId) == sampleLabelCount
+                                        && wildcardMatchesDomain(dictionary.getRule(wildcardId), sample)) {
                                     return false;
                                 }
                             }
@@ -292,7 +606,30 @@ public class PSLYesNoGame {
             });
         }
         //System.out.print("remaining psls: " + preparedPSLList.size());
-        determineRelativeChanges();
+        return removed;
+    }
+
+    /**
+     * removes the versions the filter applies to from the remaining versions
+     * @return the indexes of the removed versions
+     */
+    private BitSet removeRemainingIf(Predicate<PreparedPSL> filter) {
+        final BitSet removed = new BitSet();
+        for(int index = remaining.nextSetBit(0); index >= 0; index = remaining.nextSetBit(index + 1)) {
+            if(filter.test(preparedPSLs.get(index))) {
+                remaining.clear(index);
+                removed.set(index);
+                if(addedCount != null) {
+                    count(getAddedEntryIds(index), addedCount, -1);
+                    count(getRemovedEntryIds(index), removedCount, -1);
+                }
+            }
+        }
+        return removed;
+    }
+
+    private static boolean containsEntry(PreparedPSL preparedPSL, int ruleId) {
+        return ruleId >= 0 && preparedPSL.containsEntryId(ruleId);
     }
 
     private boolean wildcardMatchesDomain(String wildcard, String domain) {
@@ -319,29 +656,46 @@ public class PSLYesNoGame {
         return true;
     }
 
-    private void determineRelativeChanges(){
+    /**
+     * determines the added/removed entries of the remaining versions relative to the previous remaining version. Only
+     * the versions that directly follow a removed version got a new previous version; the added/removed entries of the
+     * other versions are still the ones determined before (or stored in the version, which are determined the same way).
+     * @param removed the indexes of the versions that were removed by the last answer
+     */
+    private void determineRelativeChanges(BitSet removed){
         /** determine relative changes**/
         {
-            for (int i = preparedPSLList.size() - 1; i > 0; i--) {
-                final PreparedPSL latest = preparedPSLList.get(i);
-                final PreparedPSL previous = preparedPSLList.get(i - 1);
+            final BitSet newAdjacencies = new BitSet();
+            for(int index = removed.nextSetBit(0); index >= 0; index = removed.nextSetBit(index + 1)) {
+                final int next = remaining.nextSetBit(index + 1);
+                if(next >= 0) {
+                    newAdjacencies.set(next);
+                }
+            }
+            for(int index = newAdjacencies.nextSetBit(0); index >= 0; index = newAdjacencies.nextSetBit(index + 1)) {
+                final int previousIndex = remaining.previousSetBit(index - 1);
+                if(previousIndex < 0) {
+                    //the first remaining version is handled below
+                    continue;
+                }
+                final PreparedPSL latest = preparedPSLs.get(index);
+                final PreparedPSL previous = preparedPSLs.get(previousIndex);
 
                 //determine entries that are present in previous but are missing in latest (=removed entries)
-                final List<String> removedInLatest = previous.getEntries_without_the_ones_all_versions_have_in_common().stream()
-                        .filter(s -> !previous.getTldEntries().contains(s) && !latest.containsEntry(s)) //not a tld and not present in latest
-                        .collect(Collectors.toList());
+                //(the entries all versions have in common are neither added nor removed)
+                final BitSet removedInLatest = (BitSet) previous.getEntryIds().clone();
+                removedInLatest.andNot(latest.getEntryIds()); //not present in latest
+                removedInLatest.andNot(previous.getTldEntryIds()); //not a tld
                 //only entries that are new -> not in the previous list
-                final List<String> addedInLast = latest.getEntries_without_the_ones_all_versions_have_in_common().stream()
-                        .filter(s -> !latest.getTldEntries().contains(s) && !previous.containsEntry(s)) //not a tld and not present in previous
-                        .collect(Collectors.toList());
-                latest.setAddedEntries(addedInLast);
-                latest.setRemovedEntries(removedInLatest);
+                final BitSet addedInLast = (BitSet) latest.getEntryIds().clone();
+                addedInLast.andNot(previous.getEntryIds()); //not present in previous
+                addedInLast.andNot(latest.getTldEntryIds()); //not a tld
+                setEntryIds(index, RuleIds.fromBitSet(addedInLast), RuleIds.fromBitSet(removedInLatest));
             }
-            //add entries of first psl because this one is not part of the previous loop
-            if (preparedPSLList.size() > 0) {
-                final PreparedPSL psl = preparedPSLList.get(0);
-                psl.setAddedEntries(new ArrayList<>());
-                psl.setRemovedEntries(new ArrayList<>());
+            //the first remaining version has no previous version
+            final int first = remaining.nextSetBit(0);
+            if (first >= 0) {
+                setEntryIds(first, RuleIds.EMPTY, RuleIds.EMPTY);
             }
         }
     }
@@ -429,12 +783,36 @@ public class PSLYesNoGame {
         instance.printResults();
     }
 
+    /**
+     * @return the remaining versions ordered by commit date asc (the shared versions, they must not be modified)
+     */
     public List<PreparedPSL> getResult() {
-        return this.preparedPSLList;
+        return getRemainingList();
     }
+
+    /**
+     * @return the estimated heap bytes of the state of this game; the versions are shared and not included (see
+     * HeapFootprint)
+     */
+    public long estimateHeapBytes() {
+        long bytes = HeapFootprint.align(12 + 11 * 4) + HeapFootprint.bitSetBytes(remaining)
+                + HeapFootprint.bitSetBytes(alreadyUsedEntryIds) + 2 * HeapFootprint.arrayBytes(addedEntryIds.length, 4)
+                + (addedCount == null ? 0 : HeapFootprint.intArrayBytes(addedCount) + HeapFootprint.intArrayBytes(removedCount))
+                + (equivalenceClasses == null ? 0 : HeapFootprint.intArrayBytes(equivalenceClasses));
+        for(int i = 0; i<addedEntryIds.length; i++) {
+            if(addedEntryIds[i] != null && addedEntryIds[i] != RuleIds.EMPTY) {
+                bytes += HeapFootprint.intArrayBytes(addedEntryIds[i]);
+            }
+            if(removedEntryIds[i] != null && removedEntryIds[i] != RuleIds.EMPTY) {
+                bytes += HeapFootprint.intArrayBytes(removedEntryIds[i]);
+            }
+        }
+        return bytes;
+    }
+
     private void printResults() {
         SimpleDateFormat sdf = new SimpleDateFormat("dd.MM.yyyy HH:mm:ss");
-        for(PreparedPSL preparedPSL: preparedPSLList) {
+        for(PreparedPSL preparedPSL: getRemainingList()) {
             System.out.println(preparedPSL.getCommitHash() + ": "+sdf.format(new Date(preparedPSL.getCommitTimestamp())));
         }
     }
@@ -1,44 +1,161 @@
 package yesno;
 
+import model.HeapFootprint;
 import model.PreparedPSL;
+import model.RuleDictionary;
+import model.RuleLifetimeIndex;
 import util.Filenames;
 import util.PreparedPSLReader;
 
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+/**
+ * Creates games for the prepared psl versions. The versions are loaded on the first call and can be reloaded while games
+ * are running (see reload): the loaded versions are replaced as a whole, games that already started keep the versions
+ * they were started with.
+ */
 public class PSLYesNoGameFactory {
 
-    private static List<PreparedPSL> preparedPSLS = null;
+    //replaced as a whole by reload(); null until the versions are loaded for the first time
+    private static final AtomicReference<Dataset> dataset = new AtomicReference<>();
+    private static final AtomicBoolean reloading = new AtomicBoolean(false);
+
+    /**
+     * the loaded versions and the index built for them. Games refer to the dataset they were started with, so an old
+     * dataset is released as soon as the last game that uses it is gone.
+     */
+    public static class Dataset {
+        private final List<PreparedPSL> preparedPSLs;
+        private final RuleLifetimeIndex ruleLifetimeIndex;
+
+        private Dataset(List<PreparedPSL> preparedPSLs) {
+            //make unmodifiable to prevent accidental changes
+            this.preparedPSLs = Collections.unmodifiableList(preparedPSLs);
+            this.ruleLifetimeIndex = RuleLifetimeIndex.build(preparedPSLs);
+        }
+
+        public List<PreparedPSL> getPreparedPSLs() {
+            return preparedPSLs;
+        }
+
+        /**
+         * @return the lifetime index of the rules of the versions (version index = index in the list ordered by commit
+         * date asc)
+         */
+        public RuleLifetimeIndex getRuleLifetimeIndex() {
+            return ruleLifetimeIndex;
+        }
+    }
 
     /**
      *
      * @return yesno.PSLYesNoGame Object or null if an error occurred while reading the preaparedpsls
      */
     public static PSLYesNoGame getInstance() {
-        if(preparedPSLS == null) {
-            List<PreparedPSL> list = loadPreparedPSLs();
-            if(list != null) {
-                //make unmodifiable to prevent accidental changes
-                preparedPSLS = Collections.unmodifiableList(list);
-            } else {
-                System.err.println("cannot load list");
-            }
-        }
-        if(preparedPSLS == null) {
+        return getInstance(getDataset());
+    }
+
+    /**
+     * @param dataset the versions the game is played with (see getDataset)
+     * @return yesno.PSLYesNoGame Object or null if no versions are loaded
+     */
+    public static PSLYesNoGame getInstance(Dataset dataset) {
+        return getInstance(dataset, PSLYesNoGame.SampleSelection.CENTER);
+    }
+
+    /**
+     * @param dataset the versions the game is played with (see getDataset)
+     * @param sampleSelection how the game chooses the entries to check
+     * @return yesno.PSLYesNoGame Object or null if no versions are loaded
+     */
+    public static PSLYesNoGame getInstance(Dataset dataset, PSLYesNoGame.SampleSelection sampleSelection) {
+        if(dataset == null) {
             System.err.println("no list loaded");
             return null;
         }
-        //copy preparesPSLList:
-        List<PreparedPSL> preparedPSLListCopy = new ArrayList<>(preparedPSLS.size());
-        for(PreparedPSL preparedPSL: preparedPSLS) {
-            preparedPSLListCopy.add(preparedPSL.copy());
+        //the game only holds its own state, the versions are shared by all games
+        return new PSLYesNoGame(dataset.preparedPSLs, dataset.ruleLifetimeIndex, sampleSelection);
+    }
+
+    /**
+     * @return the current versions (loaded on the first call); null if they cannot be loaded
+     */
+    public static Dataset getDataset() {
+        Dataset current = dataset.get();
+        if(current == null) {
+            synchronized (PSLYesNoGameFactory.class) {
+                current = dataset.get();
+                if(current == null) {
+                    current = loadDataset();
+                    if(current != null) {
+                        dataset.set(current);
+                    } else {
+                        System.err.println("cannot load list");
+                    }
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Loads the prepared psl versions again on a background thread and replaces the current versions when they are
+     * completely loaded, so new games are started with the new versions. If the versions cannot be loaded the current
+     * ones are kept.
+     * @return false if a reload is already running (no new reload is started)
+     */
+    public static boolean reload() {
+        if(!reloading.compareAndSet(false, true)) {
+            return false;
         }
-        return new PSLYesNoGame(preparedPSLListCopy);
+        final Thread thread = new Thread(() -> {
+            try {
+                final Dataset loaded = loadDataset();
+                if(loaded != null) {
+                    dataset.set(loaded);
+                    System.out.println("reloaded: " + loaded.preparedPSLs.size() + " versions");
+                } else {
+                    System.err.println("cannot reload list; the previous list is kept");
+                }
+            } finally {
+                reloading.set(false);
+            }
+        }, "prepared-psl-reload");
+        thread.setDaemon(true);
+        thread.start();
+        return true;
+    }
+
+    public static boolean isReloading() {
+        return reloading.get();
+    }
+
+    /**
+     * @return the estimated heap footprint of the versions, their index and the state of a new game
+     */
+    public static HeapFootprint estimateHeapFootprint(Dataset dataset) {
+        final HeapFootprint footprint = new HeapFootprint();
+        footprint.addVersions(dataset.preparedPSLs);
+        footprint.add("rule lifetime index", dataset.ruleLifetimeIndex, dataset.ruleLifetimeIndex.estimateHeapBytes());
+        final PSLYesNoGame game = getInstance(dataset);
+        footprint.add("per game", game, game.estimateHeapBytes());
+        return footprint;
+    }
+
+    private static Dataset loadDataset() {
+        final List<PreparedPSL> list = loadPreparedPSLs();
+        return list == null ? null : new Dataset(list);
     }
 
     private static List<PreparedPSL> loadPreparedPSLs() {
+        //the snapshot is much faster to load; it is written together with the json file
+        final List<PreparedPSL> snapshot = PreparedPSLReader.loadPreparedPSLSnapshot(Filenames.PREPARED_PSL_SNAPSHOT, new RuleDictionary());
+        if(snapshot != null) {
+            return snapshot;
+        }
         return PreparedPSLReader.loadPreparedPSLs(Filenames.PREPARED_PSL_JSON);
     }
 
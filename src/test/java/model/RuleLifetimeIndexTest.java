@@ -0,0 +1,78 @@
+package model;
+
+import org.junit.Test;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RuleLifetimeIndexTest {
+
+    @Test
+    public void containsMatchesTheEntriesOfEveryVersion() {
+        for(long seed = 0; seed<5; seed++) {
+            final List<PreparedPSL> versions = TestVersions.random(seed, 150, 40);
+            final RuleLifetimeIndex index = RuleLifetimeIndex.build(versions);
+            assertEquals(versions.size(), index.getVersionCount());
+            for(int ruleId = 0; ruleId<versions.get(0).getDictionary().size(); ruleId++) {
+                final BitSet expected = versionsContaining(versions, ruleId);
+                for(int versionIndex = 0; versionIndex<versions.size(); versionIndex++) {
+                    assertEquals("rule " + ruleId + ", version " + versionIndex, expected.get(versionIndex),
+                            index.contains(ruleId, versionIndex));
+                }
+                assertEquals(expected, index.getVersionsContaining(ruleId));
+            }
+        }
+    }
+
+    @Test
+    public void countVersionsContainingMatchesBitSetIntersection() {
+        final Random random = new Random(42);
+        for(long seed = 0; seed<5; seed++) {
+            final List<PreparedPSL> versions = TestVersions.random(seed, 200, 30);
+            final RuleLifetimeIndex index = RuleLifetimeIndex.build(versions);
+            for(int round = 0; round<20; round++) {
+                //random subsets, including ones that end before the last version (fewer words than the versions need)
+                final BitSet versionIndexes = new BitSet();
+                final int end = random.nextInt(versions.size() + 1);
+                for(int i = 0; i<end; i++) {
+                    if(random.nextInt(3) > 0) {
+                        versionIndexes.set(i);
+                    }
+                }
+                for(int ruleId = 0; ruleId<versions.get(0).getDictionary().size(); ruleId++) {
+                    final BitSet expected = versionsContaining(versions, ruleId);
+                    expected.and(versionIndexes);
+                    assertEquals("rule " + ruleId, expected.cardinality(), index.countVersionsContaining(ruleId, versionIndexes));
+                    assertEquals(expected.cardinality(), index.countVersionsContaining(ruleId, versionIndexes.toLongArray()));
+                    assertEquals(expected.cardinality() > 0 && expected.cardinality() < versionIndexes.cardinality(),
+                            index.splits(ruleId, versionIndexes));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void unknownRulesAreNotContained() {
+        final List<PreparedPSL> versions = TestVersions.random(1, 10, 5);
+        final RuleLifetimeIndex index = RuleLifetimeIndex.build(versions);
+        final BitSet all = new BitSet();
+        all.set(0, versions.size());
+        assertFalse(index.contains(-1, 0));
+        assertFalse(index.contains(versions.get(0).getDictionary().size(), 0));
+        assertEquals(0, index.countVersionsContaining(-1, all));
+        assertEquals(0, index.getIntervals(versions.get(0).getDictionary().size()).length);
+    }
+
+    private static BitSet versionsContaining(List<PreparedPSL> versions, int ruleId) {
+        final BitSet containing = new BitSet();
+        for(int i = 0; i<versions.size(); i++) {
+            if(versions.get(i).containsEntryId(ruleId)) {
+                containing.set(i);
+            }
+        }
+        return containing;
+    }
+}
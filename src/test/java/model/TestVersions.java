@@ -0,0 +1,174 @@
+package model;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * builds random version histories for the tests: every version toggles a few rules of the previous one, some versions
+ * only toggle a tld (so they are equal without tld entries) and some change nothing (so they are equal)
+ */
+public class TestVersions {
+
+    private TestVersions() {
+    }
+
+    /**
+     * @param ruleCount the number of rules (besides a few tlds) the versions are made of
+     * @return the versions ordered by commit date asc, all sharing one dictionary
+     */
+    public static List<PreparedPSL> random(long seed, int versionCount, int ruleCount) {
+        return random(seed, versionCount, ruleCount, false);
+    }
+
+    /**
+     * @param withWildcards true if the versions contain wildcards and exceptions too (an exception only together with
+     *                      its wildcard, see the exception-wildcard-mapping)
+     */
+    public static List<PreparedPSL> random(long seed, int versionCount, int ruleCount, boolean withWildcards) {
+        final Random random = new Random(seed);
+        final RuleDictionary dictionary = new RuleDictionary();
+        final int[] ruleIds = new int[ruleCount];
+        for(int i = 0; i<ruleCount; i++) {
+            ruleIds[i] = dictionary.getOrAddId("r" + i + ".test");
+        }
+        final int[] tldIds = new int[Math.max(1, ruleCount / 10)];
+        for(int i = 0; i<tldIds.length; i++) {
+            tldIds[i] = dictionary.getOrAddId("t" + i);
+        }
+        //exception id -> wildcard id
+        final Map<Integer, Integer> wildcardOfException = new HashMap<>();
+        final int[] toggledIds;
+        if(withWildcards) {
+            toggledIds = Arrays.copyOf(ruleIds, ruleCount + 2 * tldIds.length);
+            for(int i = 0; i<tldIds.length; i++) {
+                final int wildcardId = dictionary.getOrAddId("*.w" + i + ".test");
+                final int exceptionId = dictionary.getOrAddId("!x.w" + i + ".test");
+                toggledIds[ruleCount + 2 * i] = wildcardId;
+                toggledIds[ruleCount + 2 * i + 1] = exceptionId;
+                wildcardOfException.put(exceptionId, wildcardId);
+            }
+        } else {
+            toggledIds = ruleIds;
+        }
+        final List<BitSet> entries = new ArrayList<>();
+        BitSet current = new BitSet();
+        for(int ruleId: toggledIds) {
+            if(random.nextBoolean()) {
+                current.set(ruleId);
+            }
+        }
+        for(int i = 0; i<versionCount; i++) {
+            if(i > 0) {
+                current = (BitSet) current.clone();
+                final int change = random.nextInt(10);
+                if(change == 0) {
+                    current.flip(tldIds[random.nextInt(tldIds.length)]);
+                } else if(change > 1) {
+                    for(int toggled = 1 + random.nextInt(3); toggled > 0; toggled--) {
+                        current.flip(toggledIds[random.nextInt(toggledIds.length)]);
+                    }
+                }
+            }
+            for(Map.Entry<Integer, Integer> exception: wildcardOfException.entrySet()) {
+                if(!current.get(exception.getValue())) {
+                    current.clear(exception.getKey());
+                }
+            }
+            entries.add(current);
+        }
+        final BitSet tlds = new BitSet();
+        for(int tldId: tldIds) {
+            tlds.set(tldId);
+        }
+        final BitSet sharedByAll = (BitSet) entries.get(0).clone();
+        entries.forEach(sharedByAll::and);
+
+        final List<PreparedPSL> versions = new ArrayList<>();
+        for(int i = 0; i<versionCount; i++) {
+            final BitSet versionEntries = entries.get(i);
+            final BitSet tldEntries = (BitSet) versionEntries.clone();
+            tldEntries.and(tlds);
+            int[] added = RuleIds.EMPTY;
+            int[] removed = RuleIds.EMPTY;
+            if(i > 0) {
+                final BitSet addedEntries = (BitSet) versionEntries.clone();
+                addedEntries.andNot(entries.get(i - 1));
+                addedEntries.andNot(tlds);
+                final BitSet removedEntries = (BitSet) entries.get(i - 1).clone();
+                removedEntries.andNot(versionEntries);
+                removedEntries.andNot(tlds);
+                added = RuleIds.fromBitSet(addedEntries);
+                removed = RuleIds.fromBitSet(removedEntries);
+            }
+            final BitSet withoutTlds = (BitSet) versionEntries.clone();
+            withoutTlds.andNot(tlds);
+            final List<String> equal = new ArrayList<>();
+            final List<String> equalWithoutTlds = new ArrayList<>();
+            for(int other = 0; other<versionCount; other++) {
+                if(other != i) {
+                    final BitSet otherWithoutTlds = (BitSet) entries.get(other).clone();
+                    otherWithoutTlds.andNot(tlds);
+                    if(entries.get(other).equals(versionEntries)) {
+                        equal.add(commitHash(other));
+                    }
+                    if(otherWithoutTlds.equals(withoutTlds)) {
+                        equalWithoutTlds.add(commitHash(other));
+                    }
+                }
+            }
+            final BitSet wildcards = new BitSet();
+            final Map<String, String> exceptionToWildcardMapping = new HashMap<>();
+            for(Map.Entry<Integer, Integer> exception: wildcardOfException.entrySet()) {
+                if(versionEntries.get(exception.getValue())) {
+                    wildcards.set(exception.getValue());
+                }
+                if(versionEntries.get(exception.getKey())) {
+                    exceptionToWildcardMapping.put(dictionary.getRule(exception.getKey()), dictionary.getRule(exception.getValue()));
+                }
+            }
+            versions.add(new PreparedPSL(i * 1000L, commitHash(i), dictionary, sharedByAll, added, removed,
+                    versionEntries, equal, tldEntries, equalWithoutTlds, exceptionToWildcardMapping, RuleIds.fromBitSet(wildcards)));
+        }
+        return versions;
+    }
+
+    /**
+     * @return the words of the entries as the version stores them (see VersionEntries.getEntryWords())
+     */
+    public static long[] entryWords(PreparedPSL version) {
+        return version.getVersionEntries().getEntryWords();
+    }
+
+    /**
+     * compares the versions field by field; the rules are compared by name, so the versions may use different
+     * dictionaries
+     */
+    public static void assertEqualVersions(List<PreparedPSL> expected, List<PreparedPSL> actual) {
+        assertEquals(expected.size(), actual.size());
+        for(int i = 0; i<expected.size(); i++) {
+            final PreparedPSL e = expected.get(i);
+            final PreparedPSL a = actual.get(i);
+            final String version = e.getCommitHash();
+            assertEquals(e.getCommitTimestamp(), a.getCommitTimestamp());
+            assertEquals(e.getCommitHash(), a.getCommitHash());
+            assertEquals(version, rules(e, e.getEntryIds()), rules(a, a.getEntryIds()));
+            assertEquals(version, rules(e, e.getTldEntryIds()), rules(a, a.getTldEntryIds()));
+            assertEquals(version, rules(e, e.getEntryIdsSharedByAll()), rules(a, a.getEntryIdsSharedByAll()));
+            assertEquals(version, e.getDictionary().toRuleSet(e.getAddedEntryIds()), a.getDictionary().toRuleSet(a.getAddedEntryIds()));
+            assertEquals(version, e.getDictionary().toRuleSet(e.getRemovedEntryIds()), a.getDictionary().toRuleSet(a.getRemovedEntryIds()));
+            assertEquals(version, e.getDictionary().toRuleSet(e.getWildcardIds()), a.getDictionary().toRuleSet(a.getWildcardIds()));
+            assertEquals(version, new HashSet<>(e.getEqualPSLs()), new HashSet<>(a.getEqualPSLs()));
+            assertEquals(version, new HashSet<>(e.getEqualWithoutTLDEntries()), new HashSet<>(a.getEqualWithoutTLDEntries()));
+            assertEquals(version, e.getExceptionToWildcardMapping(), a.getExceptionToWildcardMapping());
+        }
+    }
+
+    private static Set<String> rules(PreparedPSL version, BitSet ruleIds) {
+        return version.getDictionary().toRuleSet(RuleIds.fromBitSet(ruleIds));
+    }
+
+    private static String commitHash(int index) {
+        return "version" + index;
+    }
+}
@@ -0,0 +1,136 @@
+package prepare;
+
+import model.PreparedPSL;
+import model.RuleDictionary;
+import model.RuleIds;
+import model.TestVersions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import util.Filenames;
+import util.PreparedPSLReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PSLFileReaderTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void incrementalRunsPrepareTheSameVersionsAsOneRun() throws IOException {
+        final List<PreparedPSL> versions = TestVersions.random(3, 60, 40, true);
+        final Map<String, byte[]> contents = pslFiles(versions, 3);
+        final List<String> names = new ArrayList<>(contents.keySet());
+
+        final File all = folder.newFolder("all");
+        addFiles(all, contents, names);
+        PSLFileReader.prepare(all, false, false);
+
+        final File incremental = folder.newFolder("incremental");
+        addFiles(incremental, contents, names.subList(0, 20));
+        PSLFileReader.prepare(incremental, false, false);
+        for(List<String> newNames: Arrays.asList(names.subList(20, 45), names.subList(45, names.size()))) {
+            addFiles(incremental, contents, newNames);
+            final String output = captureOutput(() -> PSLFileReader.prepare(incremental, true, false));
+            assertFalse(output, output.contains("process all versions"));
+        }
+
+        final List<PreparedPSL> expected = PreparedPSLReader.loadPreparedPSLs(
+                new File(all, Filenames.PREPARED_PSL_JSON).getPath(), new RuleDictionary());
+        assertEquals(versions.size(), expected.size());
+        TestVersions.assertEqualVersions(expected, PreparedPSLReader.loadPreparedPSLs(
+                new File(incremental, Filenames.PREPARED_PSL_JSON).getPath(), new RuleDictionary()));
+        TestVersions.assertEqualVersions(expected, PreparedPSLReader.loadPreparedPSLSnapshot(
+                new File(incremental, Filenames.PREPARED_PSL_SNAPSHOT).getPath(), new RuleDictionary()));
+    }
+
+    @Test
+    public void parseRules() {
+        final String content = "// ===BEGIN ICANN DOMAINS===\r\n"
+                + "\r\n"
+                + "com\r\n"
+                + "  // indented comment\n"
+                + "//no space\n"
+                + "Example.COM   trailing text\n"
+                + "\t\n"
+                + "*.wild.test\n"
+                + "!Exception.wild.test\n"
+                + "مصر\n"
+                + "ÄRZTE.test // comment\n"
+                + "com\n"
+                + "\r"
+                + "// ä comment\n"
+                + "example.com\r\n"
+                + "last.test";
+        final List<String> pslEntries = new ArrayList<>();
+        final int duplicates = PSLFileReader.parseRules(content.getBytes(StandardCharsets.UTF_8), pslEntries);
+        assertEquals(Arrays.asList("com", "example.com", "*.wild.test", "!exception.wild.test", "مصر",
+                "ärzte.test", "last.test"), pslEntries);
+        assertEquals(2, duplicates);
+    }
+
+    @Test
+    public void parseRulesWithoutContent() {
+        for(String content: Arrays.asList("", "\n", "\r\n", "// comment", "   ")) {
+            final List<String> pslEntries = new ArrayList<>();
+            assertEquals(0, PSLFileReader.parseRules(content.getBytes(StandardCharsets.UTF_8), pslEntries));
+            assertEquals(content, Collections.emptyList(), pslEntries);
+        }
+    }
+
+    /**
+     * @return the psl files of the versions (by file name) in the order of the versions; some versions revert to the
+     * content of an earlier one
+     */
+    private static Map<String, byte[]> pslFiles(List<PreparedPSL> versions, long seed) {
+        final Random random = new Random(seed);
+        final Map<String, byte[]> contents = new LinkedHashMap<>();
+        final List<byte[]> written = new ArrayList<>();
+        for(PreparedPSL version: versions) {
+            byte[] content;
+            if(!written.isEmpty() && random.nextInt(8) == 0) {
+                content = written.get(random.nextInt(written.size()));
+            } else {
+                final StringBuilder psl = new StringBuilder("// ===BEGIN ICANN DOMAINS===\n\n");
+                for(String rule: version.getDictionary().toRuleSet(RuleIds.fromBitSet(version.getEntryIds()))) {
+                    psl.append(rule).append('\n');
+                }
+                content = psl.toString().getBytes(StandardCharsets.UTF_8);
+            }
+            written.add(content);
+            contents.put(version.getCommitTimestamp() + "_" + version.getCommitHash(), content);
+        }
+        return contents;
+    }
+
+    private static void addFiles(File directory, Map<String, byte[]> contents, List<String> names) throws IOException {
+        final File pslFolder = new File(directory, Filenames.PSL_VERSIONS_FOLDER);
+        pslFolder.mkdirs();
+        for(String name: names) {
+            Files.write(new File(pslFolder, name).toPath(), contents.get(name));
+        }
+    }
+
+    /**
+     * @return what the runnable printed to System.out
+     */
+    private static String captureOutput(Runnable runnable) {
+        final PrintStream out = System.out;
+        final ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true, StandardCharsets.UTF_8));
+        try {
+            runnable.run();
+        } finally {
+            System.setOut(out);
+        }
+        return captured.toString(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,121 @@
+package prepare;
+
+import model.PreparedPSL;
+import model.RuleDictionary;
+import model.RuleIds;
+import model.TestVersions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class ParsedPSLCacheTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void cacheRoundTrip() throws IOException {
+        for(long seed = 0; seed<3; seed++) {
+            final Map<String, List<String>> versions = randomVersions(seed, 30);
+            final File cacheFile = new File(folder.getRoot(), "cache" + seed);
+            final List<String> keys = new ArrayList<>(versions.keySet());
+            //first run: every version is parsed
+            try(ParsedPSLCache cache = ParsedPSLCache.open(cacheFile, keys)) {
+                for(String key: keys) {
+                    assertNull(cache.get(key));
+                    cache.put(key, versions.get(key), duplicates(versions.get(key)));
+                }
+            }
+            //second run against a fresh dictionary that already has other ids; one version was removed, one added
+            final String removedKey = keys.get(3);
+            final String addedKey = "added";
+            final Map<String, List<String>> secondVersions = new LinkedHashMap<>(versions);
+            secondVersions.remove(removedKey);
+            secondVersions.put(addedKey, Arrays.asList("added.test", "r1.test", "added.test"));
+            try(ParsedPSLCache cache = ParsedPSLCache.open(cacheFile, secondVersions.keySet())) {
+                assertNull(cache.get(addedKey));
+                cache.put(addedKey, secondVersions.get(addedKey), 1);
+                assertCached(cache, versions, freshDictionary());
+                //the mapping of the first dictionary is not used for another one
+                assertCached(cache, versions, new RuleDictionary());
+            }
+            //third run: the removed version was not copied, the added one was
+            try(ParsedPSLCache cache = ParsedPSLCache.open(cacheFile, secondVersions.keySet())) {
+                assertNull(cache.get(removedKey));
+                secondVersions.remove(removedKey);
+                assertCached(cache, secondVersions, freshDictionary());
+            }
+            assertFalse(new File(folder.getRoot(), cacheFile.getName() + ".tmp").exists());
+        }
+    }
+
+    @Test
+    public void unreadableCacheIsIgnored() throws IOException {
+        final File cacheFile = new File(folder.getRoot(), "cache");
+        Files.write(cacheFile.toPath(), new byte[]{1, 2, 3});
+        try(ParsedPSLCache cache = ParsedPSLCache.open(cacheFile, Collections.singleton("key"))) {
+            assertNull(cache.get("key"));
+            cache.put("key", Arrays.asList("a.test", "b.test"), 0);
+        }
+        try(ParsedPSLCache cache = ParsedPSLCache.open(cacheFile, Collections.singleton("key"))) {
+            assertArrayEquals(new int[]{0, 1}, cache.get("key").getOrAddIds(new RuleDictionary()));
+        }
+    }
+
+    /**
+     * reads the versions in the order of the map (the ids are assigned in this order), so the ids must be the same as
+     * if the entries were added to a dictionary directly
+     */
+    private static void assertCached(ParsedPSLCache cache, Map<String, List<String>> versions, RuleDictionary dictionary) {
+        final RuleDictionary expectedDictionary = new RuleDictionary();
+        for(int id = 0; id<dictionary.size(); id++) {
+            expectedDictionary.getOrAddId(dictionary.getRule(id));
+        }
+        for(Map.Entry<String, List<String>> version: versions.entrySet()) {
+            final ParsedPSLCache.CachedVersion cached = cache.get(version.getKey());
+            assertNotNull(version.getKey(), cached);
+            assertEquals(version.getKey(), duplicates(version.getValue()), cached.getNumberOfEntriesThatAppearMoreThanOnce());
+            final int[] expected = expectedDictionary.getOrAddIds(version.getValue());
+            assertArrayEquals(version.getKey(), expected, cached.getOrAddIds(dictionary));
+        }
+        assertEquals(expectedDictionary.size(), dictionary.size());
+        for(int id = 0; id<dictionary.size(); id++) {
+            assertEquals(expectedDictionary.getRule(id), dictionary.getRule(id));
+        }
+    }
+
+    private static RuleDictionary freshDictionary() {
+        final RuleDictionary dictionary = new RuleDictionary();
+        dictionary.getOrAddId("other.test");
+        dictionary.getOrAddId("r7.test");
+        return dictionary;
+    }
+
+    /**
+     * @return the entries of random psl files (by cache key) in the order of the file, with a few entries that appear
+     * more than once
+     */
+    private static Map<String, List<String>> randomVersions(long seed, int versionCount) {
+        final Random random = new Random(seed);
+        final Map<String, List<String>> versions = new LinkedHashMap<>();
+        for(PreparedPSL version: TestVersions.random(seed, versionCount, 40, true)) {
+            final List<String> entries = new ArrayList<>(version.getDictionary().toRuleList(RuleIds.fromBitSet(version.getEntryIds())));
+            Collections.shuffle(entries, random);
+            if(!entries.isEmpty() && random.nextBoolean()) {
+                entries.add(entries.get(random.nextInt(entries.size())));
+            }
+            versions.put(version.getCommitTimestamp() + "_" + version.getCommitHash(), entries);
+        }
+        return versions;
+    }
+
+    private static int duplicates(List<String> entries) {
+        return entries.size() - new HashSet<>(entries).size();
+    }
+}
@@ -0,0 +1,135 @@
+package util;
+
+import model.PreparedPSL;
+import model.RuleIds;
+import model.TestVersions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PSLArchiveTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void archiveRoundTrip() throws IOException {
+        for(long seed = 0; seed<3; seed++) {
+            final Map<String, byte[]> contents = randomContents(seed, 150);
+            final File archiveFile = new File(folder.getRoot(), "archive" + seed);
+            try(PSLArchive.Writer writer = new PSLArchive.Writer(archiveFile)) {
+                for(Map.Entry<String, byte[]> content: contents.entrySet()) {
+                    assertTrue(writer.add(timestamp(content.getKey()), content.getKey(), content.getValue()));
+                }
+                assertFalse(writer.add(0, "version0", new byte[0]));
+            }
+            assertContents(contents, PSLArchive.open(archiveFile), seed);
+        }
+    }
+
+    @Test
+    public void repeatedContentsAreStoredOnce() throws IOException {
+        final List<byte[]> contents = new ArrayList<>(randomContents(1, 10).values());
+        final File archiveFile = new File(folder.getRoot(), "archive");
+        try(PSLArchive.Writer writer = new PSLArchive.Writer(archiveFile)) {
+            for(int i = 0; i<contents.size(); i++) {
+                writer.add(i, "version" + i, contents.get(i));
+            }
+        }
+        final long size = archiveFile.length();
+        //a revert to the first content: the record has no payload
+        try(PSLArchive.Writer writer = new PSLArchive.Writer(archiveFile)) {
+            assertTrue(writer.add(100, "revert", contents.get(0)));
+        }
+        final int hashLength = "revert".getBytes(StandardCharsets.UTF_8).length;
+        assertEquals(size + Long.BYTES + Integer.BYTES + hashLength + 1 + 32 + Integer.BYTES, archiveFile.length());
+        final PSLArchive archive = PSLArchive.open(archiveFile);
+        assertEquals(archive.getVersion("version0").getContentHash(), archive.getVersion("revert").getContentHash());
+        assertArrayEquals(contents.get(0), archive.readContent(archive.getVersion("revert")));
+    }
+
+    @Test
+    public void writerResumesAfterATruncatedTail() throws IOException {
+        final Map<String, byte[]> contents = randomContents(2, 100);
+        final List<String> commitHashes = new ArrayList<>(contents.keySet());
+        final File archiveFile = new File(folder.getRoot(), "archive");
+        try(PSLArchive.Writer writer = new PSLArchive.Writer(archiveFile)) {
+            for(String commitHash: commitHashes.subList(0, 60)) {
+                writer.add(timestamp(commitHash), commitHash, contents.get(commitHash));
+            }
+        }
+        //an interrupted write: the last record is incomplete
+        try(RandomAccessFile file = new RandomAccessFile(archiveFile, "rw")) {
+            file.setLength(file.length() - 5);
+        }
+        final PSLArchive truncated = PSLArchive.open(archiveFile);
+        assertEquals(59, truncated.getVersions().size());
+        assertNull(truncated.getVersion(commitHashes.get(59)));
+
+        try(PSLArchive.Writer writer = new PSLArchive.Writer(archiveFile)) {
+            for(String commitHash: commitHashes) {
+                assertEquals(commitHash, commitHashes.indexOf(commitHash) >= 59,
+                        writer.add(timestamp(commitHash), commitHash, contents.get(commitHash)));
+            }
+        }
+        assertContents(contents, PSLArchive.open(archiveFile), 2);
+    }
+
+    /**
+     * reads the versions in the order they were added and in random order (decoding the deltas from other starts)
+     */
+    private static void assertContents(Map<String, byte[]> contents, PSLArchive archive, long seed) throws IOException {
+        final List<String> commitHashes = new ArrayList<>(contents.keySet());
+        final List<String> added = new ArrayList<>();
+        for(PSLArchive.Version version: archive.getVersions()) {
+            added.add(version.getCommitHash());
+            assertEquals(timestamp(version.getCommitHash()), version.getCommitTimestamp());
+            assertArrayEquals(version.getName(), contents.get(version.getCommitHash()), archive.readContent(version));
+        }
+        assertEquals(commitHashes, added);
+        Collections.shuffle(commitHashes, new Random(seed));
+        for(String commitHash: commitHashes) {
+            assertArrayEquals(commitHash, contents.get(commitHash), archive.readContent(archive.getVersion(commitHash)));
+        }
+    }
+
+    /**
+     * @return psl files (by commit hash) made of random versions that repeat contents and revert to earlier ones; some
+     * files miss the final line break
+     */
+    private static Map<String, byte[]> randomContents(long seed, int versionCount) {
+        final Random random = new Random(seed);
+        final Map<String, byte[]> contents = new LinkedHashMap<>();
+        final List<byte[]> written = new ArrayList<>();
+        for(PreparedPSL version: TestVersions.random(seed, versionCount, 60, true)) {
+            final byte[] content;
+            if(!written.isEmpty() && random.nextInt(8) == 0) {
+                content = written.get(random.nextInt(written.size()));
+            } else {
+                final StringBuilder psl = new StringBuilder("// ===BEGIN ICANN DOMAINS===\n\n");
+                for(String rule: version.getDictionary().toRuleSet(RuleIds.fromBitSet(version.getEntryIds()))) {
+                    psl.append("// ").append(rule).append('\n').append(rule).append('\n');
+                }
+                psl.append("// ===END ICANN DOMAINS===");
+                if(random.nextBoolean()) {
+                    psl.append('\n');
+                }
+                content = psl.toString().getBytes(StandardCharsets.UTF_8);
+            }
+            written.add(content);
+            contents.put(version.getCommitHash(), content);
+        }
+        return contents;
+    }
+
+    private static long timestamp(String commitHash) {
+        return commitHash.hashCode();
+    }
+}
@@ -0,0 +1,126 @@
+package util;
+
+import model.HeapFootprint;
+import model.PreparedPSL;
+import model.RuleDictionary;
+import model.RuleLifetimeIndex;
+import model.TestVersions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import yesno.PSLYesNoGame;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PreparedPSLSnapshotTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void snapshotRoundTrip() throws IOException {
+        for(long seed = 0; seed<3; seed++) {
+            final List<PreparedPSL> versions = TestVersions.random(seed, 150, 40, true);
+            final File snapshotFile = new File(folder.getRoot(), "snapshot");
+            write(snapshotFile, versions);
+            //an empty dictionary keeps the ids of the snapshot (the entries stay mapped)
+            TestVersions.assertEqualVersions(versions, PreparedPSLSnapshot.read(snapshotFile, new RuleDictionary()));
+            //other ids: the entries are mapped to the ids of the dictionary
+            final RuleDictionary dictionary = new RuleDictionary();
+            dictionary.getOrAddId("other.test");
+            dictionary.getOrAddId("r5.test");
+            TestVersions.assertEqualVersions(versions, PreparedPSLSnapshot.read(snapshotFile, dictionary));
+        }
+    }
+
+    @Test
+    public void failedWriteKeepsTheOldSnapshot() throws IOException {
+        final List<PreparedPSL> versions = TestVersions.random(0, 10, 10);
+        final File snapshotFile = new File(folder.getRoot(), "snapshot");
+        write(snapshotFile, versions);
+        final byte[] oldSnapshot = Files.readAllBytes(snapshotFile.toPath());
+
+        //a version of another dictionary cannot be written
+        final PreparedPSL otherDictionary = TestVersions.random(1, 10, 10).get(5);
+        try(PreparedPSLSnapshot.Writer writer = new PreparedPSLSnapshot.Writer(snapshotFile)) {
+            for(PreparedPSL version: versions.subList(0, 5)) {
+                writer.write(version);
+            }
+            assertThrows(IllegalArgumentException.class, () -> writer.write(otherDictionary));
+        }
+        assertArrayEquals(oldSnapshot, Files.readAllBytes(snapshotFile.toPath()));
+        assertFalse(new File(folder.getRoot(), "snapshot.tmp").exists());
+        assertEquals(versions.size(), PreparedPSLSnapshot.read(snapshotFile, new RuleDictionary()).size());
+    }
+
+    @Test
+    public void abortedWriterKeepsTheOldSnapshot() throws IOException {
+        final List<PreparedPSL> versions = TestVersions.random(0, 10, 10);
+        final File snapshotFile = new File(folder.getRoot(), "snapshot");
+        write(snapshotFile, versions);
+        final byte[] oldSnapshot = Files.readAllBytes(snapshotFile.toPath());
+
+        try(PreparedPSLSnapshot.Writer writer = new PreparedPSLSnapshot.Writer(snapshotFile)) {
+            writer.write(versions.get(0));
+            writer.abort();
+        }
+        assertArrayEquals(oldSnapshot, Files.readAllBytes(snapshotFile.toPath()));
+        assertFalse(new File(folder.getRoot(), "snapshot.tmp").exists());
+    }
+
+    @Test
+    public void entriesStayInTheMappedFileUntilTheyAreRequested() throws IOException {
+        final List<PreparedPSL> versions = TestVersions.random(2, 100, 80);
+        final File snapshotFile = new File(folder.getRoot(), "snapshot");
+        write(snapshotFile, versions);
+        //an empty dictionary gets the ids of the snapshot, so the entries are mapped (and the ids match the versions)
+        final List<PreparedPSL> mapped = PreparedPSLSnapshot.read(snapshotFile, new RuleDictionary());
+        final long notHydrated = entriesBytes(mapped);
+
+        final RuleLifetimeIndex index = RuleLifetimeIndex.build(mapped);
+        for(PSLYesNoGame.SampleSelection sampleSelection: PSLYesNoGame.SampleSelection.values()) {
+            assertTrue(new PSLYesNoGame(mapped, index, sampleSelection).getNextSample().isSample());
+        }
+        assertEquals("versions were hydrated", notHydrated, entriesBytes(mapped));
+
+        final int numberOfRules = versions.get(0).getDictionary().size();
+        for(int i = 0; i<versions.size(); i++) {
+            final PreparedPSL version = versions.get(i);
+            final PreparedPSL mappedVersion = mapped.get(i);
+            assertEntriesEqual(version, mappedVersion, numberOfRules);
+            assertEquals(version.getEntryIds(), mappedVersion.getEntryIds());
+            assertEquals(version.getTldEntryIds(), mappedVersion.getTldEntryIds());
+            //same after hydration
+            assertEntriesEqual(version, mappedVersion, numberOfRules);
+        }
+        assertTrue(entriesBytes(mapped) > notHydrated);
+    }
+
+    private static void assertEntriesEqual(PreparedPSL version, PreparedPSL mappedVersion, int numberOfRules) {
+        for(int ruleId = 0; ruleId<numberOfRules; ruleId++) {
+            assertEquals(version.containsEntryId(ruleId), mappedVersion.containsEntryId(ruleId));
+        }
+        assertArrayEquals(TestVersions.entryWords(version), TestVersions.entryWords(mappedVersion));
+    }
+
+    /**
+     * @return the estimated heap bytes of the entries of the versions; grows when versions are hydrated
+     */
+    private static long entriesBytes(List<PreparedPSL> versions) {
+        final HeapFootprint footprint = new HeapFootprint();
+        footprint.addVersions(versions);
+        return footprint.getBytesByStructure().get("entries (bitsets)");
+    }
+
+    private static void write(File snapshotFile, List<PreparedPSL> versions) throws IOException {
+        try(PreparedPSLSnapshot.Writer writer = new PreparedPSLSnapshot.Writer(snapshotFile)) {
+            for(PreparedPSL version: versions) {
+                writer.write(version);
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package util;
+
+import model.PreparedPSL;
+import model.RuleDictionary;
+import model.TestVersions;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PreparedPSLWriterTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void deltaChainRoundTrip() throws IOException {
+        for(long seed = 0; seed<3; seed++) {
+            //more than two keyframes, the versions in between are deltas
+            final List<PreparedPSL> versions = TestVersions.random(seed, 2 * PreparedPSLWriter.KEYFRAME_INTERVAL + 20, 40, true);
+            final File outputFile = new File(folder.getRoot(), "prepared_psl.json");
+            try(PreparedPSLWriter writer = new PreparedPSLWriter(outputFile)) {
+                for(PreparedPSL version: versions) {
+                    writer.write(version);
+                }
+            }
+            TestVersions.assertEqualVersions(versions, PreparedPSLReader.loadPreparedPSLs(outputFile.getPath(), new RuleDictionary()));
+        }
+    }
+
+    @Test
+    public void emptyDeltaChainRoundTrip() throws IOException {
+        final File outputFile = new File(folder.getRoot(), "prepared_psl.json");
+        new PreparedPSLWriter(outputFile).close();
+        assertEquals(Collections.emptyList(), PreparedPSLReader.loadPreparedPSLs(outputFile.getPath()));
+    }
+
+    @Test
+    public void failedWriteKeepsTheOldFiles() throws IOException {
+        final List<PreparedPSL> versions = TestVersions.random(0, 10, 10);
+        final File outputFile = new File(folder.getRoot(), "prepared_psl.json");
+        final File snapshotFile = new File(folder.getRoot(), "snapshot");
+        write(outputFile, snapshotFile, versions);
+        final byte[] oldOutput = Files.readAllBytes(outputFile.toPath());
+        final byte[] oldSnapshot = Files.readAllBytes(snapshotFile.toPath());
+
+        //a version of another dictionary cannot be written to the snapshot
+        final PreparedPSL otherDictionary = TestVersions.random(1, 10, 10).get(5);
+        try(PreparedPSLWriter writer = new PreparedPSLWriter(outputFile, snapshotFile)) {
+            for(PreparedPSL version: versions.subList(0, 5)) {
+                writer.write(version);
+            }
+            assertThrows(IllegalArgumentException.class, () -> writer.write(otherDictionary));
+        }
+        assertOldFilesKept(outputFile, oldOutput, snapshotFile, oldSnapshot);
+        assertEquals(versions.size(), PreparedPSLReader.loadPreparedPSLs(outputFile.getPath()).size());
+    }
+
+    @Test
+    public void abortedWriterKeepsTheOldFiles() throws IOException {
+        final List<PreparedPSL> versions = TestVersions.random(0, 10, 10);
+        final File outputFile = new File(folder.getRoot(), "prepared_psl.json");
+        final File snapshotFile = new File(folder.getRoot(), "snapshot");
+        write(outputFile, snapshotFile, versions);
+        final byte[] oldOutput = Files.readAllBytes(outputFile.toPath());
+        final byte[] oldSnapshot = Files.readAllBytes(snapshotFile.toPath());
+
+        try(PreparedPSLWriter writer = new PreparedPSLWriter(outputFile, snapshotFile)) {
+            writer.write(versions.get(0));
+            writer.abort();
+        }
+        assertOldFilesKept(outputFile, oldOutput, snapshotFile, oldSnapshot);
+    }
+
+    private void assertOldFilesKept(File outputFile, byte[] oldOutput, File snapshotFile, byte[] oldSnapshot) throws IOException {
+        assertArrayEquals(oldOutput, Files.readAllBytes(outputFile.toPath()));
+        assertArrayEquals(oldSnapshot, Files.readAllBytes(snapshotFile.toPath()));
+        assertFalse(new File(folder.getRoot(), "prepared_psl.json.tmp").exists());
+        assertFalse(new File(folder.getRoot(), "snapshot.tmp").exists());
+    }
+
+    private static void write(File outputFile, File snapshotFile, List<PreparedPSL> versions) throws IOException {
+        try(PreparedPSLWriter writer = new PreparedPSLWriter(outputFile, snapshotFile)) {
+            for(PreparedPSL version: versions) {
+                writer.write(version);
+            }
+        }
+    }
+}
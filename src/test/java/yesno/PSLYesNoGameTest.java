@@ -0,0 +1,287 @@
+package yesno;
+
+import model.PreparedPSL;
+import model.RuleDictionary;
+import model.RuleIds;
+import model.RuleLifetimeIndex;
+import model.TestVersions;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class PSLYesNoGameTest {
+    private static final int BATCH_SIZE = 4;
+
+    @Test
+    public void setResultsEqualsSetResultOneByOne() {
+        for(PSLYesNoGame.SampleSelection sampleSelection: PSLYesNoGame.SampleSelection.values()) {
+            for(long seed = 0; seed<10; seed++) {
+                final List<PreparedPSL> versions = TestVersions.random(seed, 60, 25);
+                final RuleLifetimeIndex index = RuleLifetimeIndex.build(versions);
+                final PreparedPSL searched = versions.get(new Random(seed).nextInt(versions.size()));
+                final PSLYesNoGame batch = new PSLYesNoGame(versions, index, sampleSelection);
+                final PSLYesNoGame oneByOne = new PSLYesNoGame(versions, index, sampleSelection);
+                for(int round = 0; ; round++) {
+                    assertTrue("no result after " + round + " rounds", round < versions.size());
+                    final List<PSLYesNoGame.SampleResult> samples = batch.getNextSamples(BATCH_SIZE);
+                    if(!samples.get(0).isSample()) {
+                        assertTrue(samples.get(0).isResultReady());
+                        break;
+                    }
+                    final Map<String, Boolean> results = new LinkedHashMap<>();
+                    for(PSLYesNoGame.SampleResult sample: samples) {
+                        results.put(sample.getSample(), answer(searched, sample.getSample()));
+                    }
+                    batch.setResults(results);
+                    results.forEach(oneByOne::setResult);
+                    assertSameState(versions, batch, oneByOne);
+                    assertRelativeChangesUpToDate(versions, batch);
+                }
+                assertTrue(batch.getResult().contains(searched));
+            }
+        }
+    }
+
+    @Test
+    public void relativeChangesAndCountsFollowTheRemainingVersions() {
+        for(long seed = 0; seed<10; seed++) {
+            final List<PreparedPSL> versions = TestVersions.random(seed, 60, 25);
+            final PreparedPSL searched = versions.get(new Random(seed).nextInt(versions.size()));
+            final PSLYesNoGame game = new PSLYesNoGame(versions);
+            //the stored added/removed entries apply as long as no version is removed
+            assertRelativeChangesUpToDate(versions, game);
+            PSLYesNoGame.SampleResult sample;
+            while((sample = game.getNextSample()).isSample()) {
+                game.setResult(sample.getSample(), answer(searched, sample.getSample()));
+                assertRelativeChangesUpToDate(versions, game);
+            }
+            assertTrue(game.getResult().contains(searched));
+        }
+    }
+
+    @Test
+    public void informationGainChoosesTheMostEvenlySplittingEntry() {
+        for(PSLYesNoGame.SampleSelection sampleSelection: new PSLYesNoGame.SampleSelection[]{
+                PSLYesNoGame.SampleSelection.INFORMATION_GAIN, PSLYesNoGame.SampleSelection.INFORMATION_GAIN_BY_EQUIVALENCE_CLASS}) {
+            for(long seed = 0; seed<10; seed++) {
+                final List<PreparedPSL> versions = TestVersions.random(seed, 60, 25);
+                final PreparedPSL searched = versions.get(new Random(seed).nextInt(versions.size()));
+                final PSLYesNoGame game = new PSLYesNoGame(versions, RuleLifetimeIndex.build(versions), sampleSelection);
+                final Set<String> used = new HashSet<>();
+                PSLYesNoGame.SampleResult sample;
+                while((sample = game.getNextSample()).isSample()) {
+                    final BitSet toSplit = versionsToSplit(versions, game, sampleSelection);
+                    int bestScore = 0;
+                    for(int ruleId = 0; ruleId<versions.get(0).getDictionary().size(); ruleId++) {
+                        final String rule = versions.get(0).getDictionary().getRule(ruleId);
+                        if((game.getAddedCount(ruleId) > 0 || game.getRemovedCount(ruleId) > 0) && !used.contains(rule)) {
+                            bestScore = Math.max(bestScore, score(versions, toSplit, rule));
+                        }
+                    }
+                    if(bestScore > 0) {
+                        //otherwise the center selection is used
+                        assertEquals(sample.getSample(), bestScore, score(versions, toSplit, sample.getSample()));
+                    }
+                    used.add(sample.getSample());
+                    game.setResult(sample.getSample(), answer(searched, sample.getSample()));
+                }
+                assertTrue(game.getResult().contains(searched));
+            }
+        }
+    }
+
+    @Test
+    public void nextSamplesSplitTheGroupsOfThePreviousSamples() {
+        for(long seed = 0; seed<10; seed++) {
+            final List<PreparedPSL> versions = TestVersions.random(seed, 60, 25);
+            final PreparedPSL searched = versions.get(new Random(seed).nextInt(versions.size()));
+            final PSLYesNoGame game = new PSLYesNoGame(versions, RuleLifetimeIndex.build(versions),
+                    PSLYesNoGame.SampleSelection.INFORMATION_GAIN);
+            final Set<String> used = new HashSet<>();
+            while(true) {
+                final PSLYesNoGame.SampleResult next = game.getNextSample();
+                final List<PSLYesNoGame.SampleResult> samples = game.getNextSamples(BATCH_SIZE);
+                assertTrue(samples.size() >= 1 && samples.size() <= BATCH_SIZE);
+                assertEquals(next.getSample(), samples.get(0).getSample());
+                if(!next.isSample()) {
+                    assertEquals(1, samples.size());
+                    break;
+                }
+                //every further sample splits a group of versions with the same answers to the samples before it
+                List<BitSet> groups = Collections.singletonList(versionsToSplit(versions, game, PSLYesNoGame.SampleSelection.INFORMATION_GAIN));
+                final Map<String, Boolean> results = new LinkedHashMap<>();
+                for(PSLYesNoGame.SampleResult sample: samples) {
+                    assertTrue(sample.isSample());
+                    assertFalse(sample.getSample(), used.contains(sample.getSample()) || results.containsKey(sample.getSample()));
+                    if(!results.isEmpty()) {
+                        int score = 0;
+                        for(BitSet group: groups) {
+                            score += score(versions, group, sample.getSample());
+                        }
+                        assertTrue(sample.getSample() + " splits no group", score > 0);
+                    }
+                    groups = split(versions, groups, sample.getSample());
+                    results.put(sample.getSample(), answer(searched, sample.getSample()));
+                }
+                used.addAll(results.keySet());
+                game.setResults(results);
+            }
+            assertTrue(game.getResult().contains(searched));
+        }
+    }
+
+    @Test
+    public void centerSelectionChecksOneEntryAtATime() {
+        final List<PreparedPSL> versions = TestVersions.random(3, 30, 15);
+        final PSLYesNoGame game = new PSLYesNoGame(versions);
+        assertEquals(1, game.getNextSamples(BATCH_SIZE).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void informationGainNeedsTheRuleLifetimeIndex() {
+        new PSLYesNoGame(TestVersions.random(0, 5, 5), null, PSLYesNoGame.SampleSelection.INFORMATION_GAIN);
+    }
+
+    @Test
+    public void noUnusedEntryFailsTheGameInsteadOfExiting() {
+        //both versions have *.w.test, so answering that x.w.test is in the list removes neither of them and the only
+        //entry that differs is used up
+        final RuleDictionary dictionary = new RuleDictionary();
+        final int wildcard = dictionary.getOrAddId("*.w.test");
+        final int sample = dictionary.getOrAddId("x.w.test");
+        final BitSet first = new BitSet();
+        first.set(wildcard);
+        final BitSet second = (BitSet) first.clone();
+        second.set(sample);
+        final List<PreparedPSL> versions = Arrays.asList(
+                new PreparedPSL(0, "first", dictionary, first, RuleIds.EMPTY, RuleIds.EMPTY, first,
+                        Collections.emptyList(), new BitSet(), Collections.emptyList(), Collections.emptyMap(), new int[]{wildcard}),
+                new PreparedPSL(1000, "second", dictionary, first, new int[]{sample}, RuleIds.EMPTY, second,
+                        Collections.emptyList(), new BitSet(), Collections.emptyList(), Collections.emptyMap(), new int[]{wildcard}));
+        final PSLYesNoGame game = new PSLYesNoGame(versions);
+        assertEquals("x.w.test", game.getNextSample().getSample());
+        game.setResult("x.w.test", true);
+        assertEquals(versions, game.getResult());
+        try {
+            game.getNextSample();
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().contains("x.w.test"));
+        }
+    }
+
+    private static boolean answer(PreparedPSL searched, String sample) {
+        return searched.containsEntryId(searched.getDictionary().getId(sample));
+    }
+
+    private static int[] remainingIndexes(List<PreparedPSL> versions, PSLYesNoGame game) {
+        return game.getResult().stream().mapToInt(versions::indexOf).toArray();
+    }
+
+    private static void assertSameState(List<PreparedPSL> versions, PSLYesNoGame expected, PSLYesNoGame actual) {
+        assertEquals(expected.getResult(), actual.getResult());
+        for(int index: remainingIndexes(versions, expected)) {
+            assertArrayEquals(expected.getAddedEntryIds(index), actual.getAddedEntryIds(index));
+            assertArrayEquals(expected.getRemovedEntryIds(index), actual.getRemovedEntryIds(index));
+        }
+        for(int ruleId = 0; ruleId<versions.get(0).getDictionary().size(); ruleId++) {
+            assertEquals(expected.getAddedCount(ruleId), actual.getAddedCount(ruleId));
+            assertEquals(expected.getRemovedCount(ruleId), actual.getRemovedCount(ruleId));
+        }
+        assertEquals(expected.getNextSample().getSample(), actual.getNextSample().getSample());
+    }
+
+    /**
+     * checks the added/removed entries of every remaining version against the previous remaining version (the first
+     * has none) and the counts against these entries
+     */
+    private static void assertRelativeChangesUpToDate(List<PreparedPSL> versions, PSLYesNoGame game) {
+        final RuleDictionary dictionary = versions.get(0).getDictionary();
+        final int[] expectedAddedCount = new int[dictionary.size()];
+        final int[] expectedRemovedCount = new int[dictionary.size()];
+        PreparedPSL previous = null;
+        for(int index: remainingIndexes(versions, game)) {
+            final PreparedPSL version = versions.get(index);
+            int[] added = RuleIds.EMPTY;
+            int[] removed = RuleIds.EMPTY;
+            if(previous != null) {
+                final BitSet addedEntries = (BitSet) version.getEntryIds().clone();
+                addedEntries.andNot(previous.getEntryIds());
+                addedEntries.andNot(version.getTldEntryIds());
+                final BitSet removedEntries = (BitSet) previous.getEntryIds().clone();
+                removedEntries.andNot(version.getEntryIds());
+                removedEntries.andNot(previous.getTldEntryIds());
+                added = RuleIds.fromBitSet(addedEntries);
+                removed = RuleIds.fromBitSet(removedEntries);
+            }
+            assertArrayEquals(version.getCommitHash(), added, game.getAddedEntryIds(index));
+            assertArrayEquals(version.getCommitHash(), removed, game.getRemovedEntryIds(index));
+            for(int ruleId: added) {
+                expectedAddedCount[ruleId]++;
+            }
+            for(int ruleId: removed) {
+                expectedRemovedCount[ruleId]++;
+            }
+            previous = version;
+        }
+        for(int ruleId = 0; ruleId<dictionary.size(); ruleId++) {
+            assertEquals(dictionary.getRule(ruleId), expectedAddedCount[ruleId], game.getAddedCount(ruleId));
+            assertEquals(dictionary.getRule(ruleId), expectedRemovedCount[ruleId], game.getRemovedCount(ruleId));
+        }
+    }
+
+    /**
+     * @return the remaining versions; for the equivalence class selection only the first remaining version of the
+     * versions with the same entries except for tld entries
+     */
+    private static BitSet versionsToSplit(List<PreparedPSL> versions, PSLYesNoGame game, PSLYesNoGame.SampleSelection sampleSelection) {
+        final BitSet toSplit = new BitSet();
+        final Set<BitSet> classes = new HashSet<>();
+        for(int index: remainingIndexes(versions, game)) {
+            final BitSet withoutTlds = (BitSet) versions.get(index).getEntryIds().clone();
+            withoutTlds.andNot(versions.get(index).getTldEntryIds());
+            if(sampleSelection != PSLYesNoGame.SampleSelection.INFORMATION_GAIN_BY_EQUIVALENCE_CLASS || classes.add(withoutTlds)) {
+                toSplit.set(index);
+            }
+        }
+        return toSplit;
+    }
+
+    /**
+     * @return the number of versions on the smaller side of the split by the answer to the sample
+     */
+    private static int score(List<PreparedPSL> versions, BitSet versionIndexes, String sample) {
+        final BitSet containing = containing(versions, versionIndexes, sample);
+        return Math.min(containing.cardinality(), versionIndexes.cardinality() - containing.cardinality());
+    }
+
+    private static BitSet containing(List<PreparedPSL> versions, BitSet versionIndexes, String sample) {
+        final BitSet containing = new BitSet();
+        for(int index = versionIndexes.nextSetBit(0); index >= 0; index = versionIndexes.nextSetBit(index + 1)) {
+            if(answer(versions.get(index), sample)) {
+                containing.set(index);
+            }
+        }
+        return containing;
+    }
+
+    /**
+     * @return the groups split by the answer to the sample (without groups of less than two versions)
+     */
+    private static List<BitSet> split(List<PreparedPSL> versions, List<BitSet> groups, String sample) {
+        final List<BitSet> splitGroups = new ArrayList<>();
+        for(BitSet group: groups) {
+            final BitSet in = containing(versions, group, sample);
+            final BitSet out = (BitSet) group.clone();
+            out.andNot(in);
+            for(BitSet splitGroup: new BitSet[]{in, out}) {
+                if(splitGroup.cardinality() > 1) {
+                    splitGroups.add(splitGroup);
+                }
+            }
+        }
+        return splitGroups;
+    }
+}